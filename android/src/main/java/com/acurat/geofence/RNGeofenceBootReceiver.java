@@ -0,0 +1,55 @@
+package com.acurat.geofence;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+import static com.acurat.geofence.RNGeofenceConstants.MODULE_NAME;
+
+/**
+ * Registers the persisted regions again after the device reboots or the app is updated,
+ * both of which remove every geofence of the app from Play Services.
+ */
+public class RNGeofenceBootReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(action) && !Intent.ACTION_MY_PACKAGE_REPLACED.equals(action)) {
+            return;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        final PendingResult pendingResult = goAsync();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                RNGeofenceRegistry registry = RNGeofenceRegistrar.getRegistry(appContext);
+                if (registry.size() == 0) {
+                    pendingResult.finish();
+                    return;
+                }
+
+                Log.i(MODULE_NAME, "Restoring " + registry.size() + " regions");
+                // Location updates for suppressed polygon enters are removed by a reboot too
+                RNGeofencePolygonWatcher.getInstance(appContext).update();
+                registry.invalidate();
+                RNGeofenceRegistrar.update(appContext)
+                        .addOnCompleteListener(new OnCompleteListener<Void>() {
+                            @Override
+                            public void onComplete(@NonNull Task<Void> task) {
+                                if (!task.isSuccessful()) {
+                                    Log.e(MODULE_NAME, "Could not restore regions");
+                                }
+                                pendingResult.finish();
+                            }
+                        });
+            }
+        }, "RNGeofenceRestore").start();
+    }
+}
@@ -3,11 +3,15 @@ package com.acurat.geofence;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.support.v4.content.LocalBroadcastManager;
+import android.location.Location;
+import android.support.annotation.NonNull;
 import android.util.Log;
 
 import com.google.android.gms.location.Geofence;
 import com.google.android.gms.location.GeofencingEvent;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -18,6 +22,10 @@ public class RNGeofenceBroadcastReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
+        if (RNGeofencePolygonWatcher.ACTION_LOCATION.equals(intent.getAction())) {
+            onPolygonLocation(context, intent);
+            return;
+        }
 
         GeofencingEvent geofencingEvent = GeofencingEvent.fromIntent(intent);
 
@@ -30,30 +38,62 @@ public class RNGeofenceBroadcastReceiver extends BroadcastReceiver {
 
         // Get the transition type.
         int geofenceTransition = geofencingEvent.getGeofenceTransition();
+        RNGeofenceMetrics metrics = RNGeofenceMetrics.getInstance();
 
         // Test that the reported transition was of interest.
         if (geofenceTransition == Geofence.GEOFENCE_TRANSITION_ENTER ||
-                geofenceTransition == Geofence.GEOFENCE_TRANSITION_EXIT) {
-
-            RNGeofenceDataObject geofenceDataObject = new RNGeofenceDataObject();
-            List<String> requestIds = new ArrayList<>();
-            for (Geofence geofence : geofencingEvent.getTriggeringGeofences()) {
-                requestIds.add(geofence.getRequestId());
+                geofenceTransition == Geofence.GEOFENCE_TRANSITION_EXIT ||
+                geofenceTransition == Geofence.GEOFENCE_TRANSITION_DWELL) {
+
+            List<Geofence> triggeringGeofences = geofencingEvent.getTriggeringGeofences();
+            Location location = geofencingEvent.getTriggeringLocation();
+            RNGeofenceRegistry registry = RNGeofenceRegistrar.getRegistry(context);
+            List<String> triggeredIds = new ArrayList<>(triggeringGeofences.size());
+            boolean refresh = false;
+            for (Geofence geofence : triggeringGeofences) {
+                String requestId = geofence.getRequestId();
+                if (RNGeofenceConstants.REFRESH_GEOFENCE_ID.equals(requestId)) {
+                    refresh = true;
+                } else if (requestId.startsWith(RNGeofenceConstants.CLUSTER_GEOFENCE_PREFIX)) {
+                    // Entering registers the members of the cluster, leaving removes them
+                    refresh = true;
+                    triggeredIds.addAll(registry.resolveCluster(requestId, geofenceTransition,
+                            location != null ? location.getLatitude() : Double.NaN,
+                            location != null ? location.getLongitude() : Double.NaN));
+                } else {
+                    triggeredIds.add(requestId);
+                }
             }
 
-            geofenceDataObject.setRequestIds(requestIds);
-            geofenceDataObject.setTransitionType(RNGeofenceHelper.getTransitionCode(geofenceTransition));
-            Log.i(MODULE_NAME, "Sending events " + geofenceDataObject);
+            List<String> requestIds = new ArrayList<>(triggeredIds.size());
+            for (String requestId : triggeredIds) {
+                metrics.transitionsReceived.incrementAndGet();
+                if (!registry.confirmTransition(requestId, geofenceTransition,
+                        location != null ? location.getLatitude() : Double.NaN,
+                        location != null ? location.getLongitude() : Double.NaN)) {
+                    Log.i(MODULE_NAME, "Suppressed transition of " + requestId
+                            + " outside of its polygon or already resolved for its cluster");
+                    metrics.transitionsSuppressed.incrementAndGet();
+                    continue;
+                }
+                if (accept(context, requestId, geofenceTransition, location)) {
+                    requestIds.add(requestId);
+                }
+            }
+            // Enters of the circle outside of a polygon start the watch, exits of it end it
+            RNGeofencePolygonWatcher.getInstance(context).update();
 
-            if (RNGeofenceHelper.isAppOnForeground(context)) {
-                Log.i(MODULE_NAME, "App in the foreground");
-                Intent transitionIntent = new Intent(RNGeofenceConstants.LOCAL_GEOFENCE_EVENT);
-                transitionIntent.putExtra(RNGeofenceConstants.LOCAL_GEOFENCE_DATA, geofenceDataObject);
-                LocalBroadcastManager.getInstance(context.getApplicationContext()).sendBroadcast(transitionIntent);
-            } else {
-                // TODO background event
-                Log.i(MODULE_NAME, "App not in the foreground");
+            if (refresh) {
+                updateActiveGeofences(context, location);
+            }
+            if (requestIds.isEmpty()) {
+                return;
             }
+
+            RNGeofenceDataObject geofenceDataObject = new RNGeofenceDataObject(geofenceTransition,
+                    requestIds.toArray(new String[requestIds.size()]), System.currentTimeMillis());
+            Log.i(MODULE_NAME, "Sending events " + geofenceDataObject);
+            dispatch(context, geofenceDataObject);
         } else {
             // Log the error.
             Log.e(MODULE_NAME, "Geofence transition error: invalid transition type");
@@ -61,5 +101,103 @@ public class RNGeofenceBroadcastReceiver extends BroadcastReceiver {
 
     }
 
+    /**
+     * Delivers the enters of polygon regions whose circle was entered outside of the polygon,
+     * once a location update of {@link RNGeofencePolygonWatcher} is inside of the polygon.
+     */
+    private void onPolygonLocation(Context context, Intent intent) {
+        RNGeofenceRegistry registry = RNGeofenceRegistrar.getRegistry(context);
+        Location location = LocationResult.hasResult(intent) ?
+                LocationResult.extractResult(intent).getLastLocation() : null;
+        List<String> requestIds = new ArrayList<>();
+        if (location != null) {
+            for (String requestId : registry.confirmSuppressedEnters(location.getLatitude(), location.getLongitude())) {
+                RNGeofenceMetrics.getInstance().transitionsReceived.incrementAndGet();
+                if (accept(context, requestId, Geofence.GEOFENCE_TRANSITION_ENTER, location)) {
+                    requestIds.add(requestId);
+                }
+            }
+        }
+        RNGeofencePolygonWatcher.getInstance(context).update();
+        if (requestIds.isEmpty()) {
+            return;
+        }
+
+        RNGeofenceDataObject geofenceDataObject = new RNGeofenceDataObject(Geofence.GEOFENCE_TRANSITION_ENTER,
+                requestIds.toArray(new String[requestIds.size()]), System.currentTimeMillis());
+        Log.i(MODULE_NAME, "Sending polygon enters " + geofenceDataObject);
+        dispatch(context, geofenceDataObject);
+    }
+
+    /**
+     * Runs a confirmed transition of a region through the dwell timers and the flap
+     * suppression, and returns whether it is delivered now.
+     */
+    private static boolean accept(Context context, String requestId, int geofenceTransition, Location location) {
+        RNGeofenceDwellScheduler dwellScheduler = RNGeofenceDwellScheduler.getInstance(context);
+        GeofenceOptions options = RNGeofenceRegistrar.getRegistry(context).get(requestId);
+        boolean dwell = options != null && (options.transitionTypes & Geofence.GEOFENCE_TRANSITION_DWELL) != 0;
+        if (geofenceTransition == Geofence.GEOFENCE_TRANSITION_ENTER && dwell) {
+            dwellScheduler.onEnter(requestId, options.loiteringDelay);
+        } else if (geofenceTransition == Geofence.GEOFENCE_TRANSITION_EXIT) {
+            dwellScheduler.onExit(requestId);
+        } else if (geofenceTransition == Geofence.GEOFENCE_TRANSITION_DWELL
+                && !dwellScheduler.confirmDwell(requestId)) {
+            // Already delivered when the dwell timer of the region ran out
+            RNGeofenceMetrics.getInstance().transitionsSuppressed.incrementAndGet();
+            return false;
+        }
+        if (geofenceTransition != Geofence.GEOFENCE_TRANSITION_DWELL && !RNGeofenceFlapScheduler.getInstance(context)
+                .onTransition(options, geofenceTransition,
+                        location != null ? location.getLatitude() : Double.NaN,
+                        location != null ? location.getLongitude() : Double.NaN)) {
+            // Held until the hold time runs out, or undone by the opposite transition
+            return false;
+        }
+
+        // Enter and exit are monitored for every region, only the requested ones are delivered
+        return options == null || (options.transitionTypes & geofenceTransition) != 0;
+    }
+
+    /**
+     * Hands a transition to the module when the app is in the foreground, or journals it
+     * until the app comes back. It is also journaled when no module is listening.
+     */
+    static void dispatch(Context context, RNGeofenceDataObject event) {
+        if (RNGeofenceHelper.isAppOnForeground(context)) {
+            Log.i(MODULE_NAME, "App in the foreground");
+            if (RNGeofenceDispatcher.getInstance().offer(event)) {
+                return;
+            }
+            Log.i(MODULE_NAME, "No module is listening, journaling event");
+        } else {
+            Log.i(MODULE_NAME, "App not in the foreground, journaling event");
+        }
+        RNGeofenceJournal.getInstance(context).append(event);
+    }
+
+    /**
+     * Selects the regions nearest to the location where the refresh geofence was exited, or
+     * a cluster was entered or left, and registers them, keeping the receiver alive until
+     * Play Services is updated.
+     */
+    private void updateActiveGeofences(Context context, Location location) {
+        RNGeofenceRegistry registry = RNGeofenceRegistrar.getRegistry(context);
+        if (registry.size() == 0 || (location == null && registry.needsLocation())) {
+            Log.w(MODULE_NAME, "Refresh geofence exited without regions to select from");
+            return;
+        }
+
+        final PendingResult pendingResult = goAsync();
+        RNGeofenceRegistrar.updateAt(context.getApplicationContext(),
+                location != null ? location.getLatitude() : Double.NaN,
+                location != null ? location.getLongitude() : Double.NaN)
+                .addOnCompleteListener(new OnCompleteListener<Void>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Void> task) {
+                        pendingResult.finish();
+                    }
+                });
+    }
 
 }
@@ -1,18 +0,0 @@
-package com.acurat.geofence;
-
-final class RNGeofenceConstants {
-
-    public static final int REQUEST_PERMISSIONS_REQUEST_CODE = 34;
-    public static final float DEFAULT_RADIUS = 50;
-    public static final String MODULE_NAME = "RNGeofence";
-    public static final String TRANSITION = "onTransition";
-    public static final String ENTER = "ENTER";
-    public static final String EXIT = "EXIT";
-    public static final String UNKNOWN_ERROR = "UNKNOWN_ERROR";
-    public static final String LOCAL_GEOFENCE_EVENT = "LOCAL_GEOFENCE_EVENT";
-    public static final String LOCAL_GEOFENCE_DATA = "LOCAL_GEOFENCE_DATA";
-    private RNGeofenceConstants() {
-    }
-
-
-}
@@ -0,0 +1,134 @@
+package com.acurat.geofence;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.location.Geofence;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.acurat.geofence.RNGeofenceConstants.MODULE_NAME;
+
+/**
+ * Times the dwell of every occupied region on one timing wheel. An enter starts the timer of
+ * a region and an exit cancels it, a timer that runs out is delivered as a DWELL transition.
+ * Only one Handler callback is pending at a time, for the earliest deadline.
+ * <p>
+ * Play Services also reports dwell for the regions, which covers the stays during which the
+ * process was killed. Whichever of the two comes first is delivered, the other is dropped.
+ */
+final class RNGeofenceDwellScheduler {
+
+    private static final long TICK = 1000;
+    private static final int SLOTS = 512;
+
+    private static RNGeofenceDwellScheduler sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final RNGeofenceTimerWheel mWheel = new RNGeofenceTimerWheel(TICK, SLOTS);
+    // Regions whose dwell was delivered during the current stay
+    private final Set<String> mDwelling = new HashSet<>();
+    private final List<String> mExpired = new ArrayList<>();
+    private final Runnable mTickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+    private long mWakeAt = Long.MAX_VALUE;
+
+    private RNGeofenceDwellScheduler(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread("RNGeofenceDwell");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    static synchronized RNGeofenceDwellScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RNGeofenceDwellScheduler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts a new stay in the region. A stay that is already being timed keeps its deadline.
+     */
+    synchronized void onEnter(String id, int loiteringDelay) {
+        mDwelling.remove(id);
+        if (mWheel.isScheduled(id)) {
+            return;
+        }
+        long deadline = SystemClock.elapsedRealtime() + loiteringDelay;
+        mWheel.schedule(id, deadline);
+        wakeAt(deadline);
+    }
+
+    synchronized void onExit(String id) {
+        mWheel.cancel(id);
+        mDwelling.remove(id);
+    }
+
+    /**
+     * Returns whether a dwell reported by Play Services should be delivered, which is the case
+     * unless it was already delivered for the current stay.
+     */
+    synchronized boolean confirmDwell(String id) {
+        mWheel.cancel(id);
+        return mDwelling.add(id);
+    }
+
+    synchronized void clear() {
+        mWheel.clear();
+        mDwelling.clear();
+        mHandler.removeCallbacks(mTickRunnable);
+        mWakeAt = Long.MAX_VALUE;
+    }
+
+    private void tick() {
+        String[] requestIds;
+        synchronized (this) {
+            mWakeAt = Long.MAX_VALUE;
+            mExpired.clear();
+            mWheel.advance(SystemClock.elapsedRealtime(), mExpired);
+            RNGeofenceRegistry registry = RNGeofenceRegistry.getInstance();
+            List<String> dwelling = new ArrayList<>(mExpired.size());
+            for (String id : mExpired) {
+                GeofenceOptions options = registry.get(id);
+                // The region may have been removed or replaced during the stay
+                if (options != null && (options.transitionTypes & Geofence.GEOFENCE_TRANSITION_DWELL) != 0) {
+                    mDwelling.add(id);
+                    dwelling.add(id);
+                }
+            }
+            if (mWheel.size() > 0) {
+                wakeAt(mWheel.nextWakeUp());
+            }
+            requestIds = dwelling.toArray(new String[dwelling.size()]);
+        }
+        if (requestIds.length > 0) {
+            RNGeofenceDataObject event = new RNGeofenceDataObject(Geofence.GEOFENCE_TRANSITION_DWELL,
+                    requestIds, System.currentTimeMillis());
+            Log.i(MODULE_NAME, "Dwell timers expired " + event);
+            RNGeofenceBroadcastReceiver.dispatch(mContext, event);
+        }
+    }
+
+    private void wakeAt(long deadline) {
+        if (deadline >= mWakeAt) {
+            return;
+        }
+        mWakeAt = deadline;
+        mHandler.removeCallbacks(mTickRunnable);
+        // The wheel fires on the first tick boundary at or after the deadline
+        long delay = (deadline / TICK + 1) * TICK - SystemClock.elapsedRealtime();
+        mHandler.postDelayed(mTickRunnable, Math.max(0, delay));
+    }
+}
@@ -0,0 +1,142 @@
+package com.acurat.geofence;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects transitions over a time window or up to a size limit and hands them over as
+ * one batch. Consecutive transitions of the same type are merged into a single event.
+ */
+final class RNGeofenceEventBatcher {
+
+    static final String REASON_WINDOW = "window";
+    static final String REASON_SIZE = "size";
+
+    interface Listener {
+        void onBatch(List<RNGeofenceDataObject> events, Stats stats);
+    }
+
+    /**
+     * Describes a delivered batch, used to tune the window and size limit.
+     */
+    static final class Stats {
+        // Transitions received during the batch
+        final int received;
+        // Events delivered after merging consecutive transitions of the same type
+        final int delivered;
+        final int requestIds;
+        // Time from the first transition of the batch until it was delivered
+        final long latency;
+        final String reason;
+
+        private Stats(int received, int delivered, int requestIds, long latency, String reason) {
+            this.received = received;
+            this.delivered = delivered;
+            this.requestIds = requestIds;
+            this.latency = latency;
+            this.reason = reason;
+        }
+    }
+
+    private final Handler mHandler;
+    private final Listener mListener;
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush(REASON_WINDOW);
+        }
+    };
+
+    private long mWindow;
+    private int mMaxSize;
+    private List<RNGeofenceDataObject> mPending = new ArrayList<>();
+    private int mReceived;
+    private int mRequestIds;
+    private long mFirstReceivedAt;
+
+    RNGeofenceEventBatcher(Handler handler, Listener listener) {
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    /**
+     * Enables batching with the given window in milliseconds and size limit, a window of
+     * zero disables it and delivers what is pending.
+     */
+    void configure(long window, int maxSize) {
+        synchronized (this) {
+            mWindow = Math.max(0, window);
+            mMaxSize = Math.max(1, maxSize);
+        }
+        if (window <= 0) {
+            flush(REASON_WINDOW);
+        }
+    }
+
+    synchronized boolean isEnabled() {
+        return mWindow > 0;
+    }
+
+    void add(RNGeofenceDataObject event) {
+        boolean full;
+        synchronized (this) {
+            if (mReceived == 0) {
+                mFirstReceivedAt = SystemClock.elapsedRealtime();
+                mHandler.postDelayed(mFlushRunnable, mWindow);
+            }
+            mReceived++;
+            mRequestIds += event.getRequestIds().length;
+
+            int last = mPending.size() - 1;
+            if (last >= 0 && mPending.get(last).getTransition() == event.getTransition()) {
+                // The events may be referenced elsewhere, so a merged copy replaces them. It keeps
+                // the time of the first transition, which the latencies are measured from.
+                RNGeofenceDataObject first = mPending.get(last);
+                String[] previous = first.getRequestIds();
+                String[] requestIds = Arrays.copyOf(previous, previous.length + event.getRequestIds().length);
+                System.arraycopy(event.getRequestIds(), 0, requestIds, previous.length, event.getRequestIds().length);
+                mPending.set(last, new RNGeofenceDataObject(first.getTransition(), requestIds, first.getTimestamp()));
+            } else {
+                mPending.add(event);
+            }
+            full = mReceived >= mMaxSize;
+        }
+        if (full) {
+            flush(REASON_SIZE);
+        }
+    }
+
+    /**
+     * Cancels the scheduled delivery and returns the pending events instead of delivering them.
+     */
+    synchronized List<RNGeofenceDataObject> cancel() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        List<RNGeofenceDataObject> events = mPending;
+        mPending = new ArrayList<>();
+        mReceived = 0;
+        mRequestIds = 0;
+        return events;
+    }
+
+    void flush(String reason) {
+        List<RNGeofenceDataObject> events;
+        Stats stats;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            if (mReceived == 0) {
+                return;
+            }
+            events = mPending;
+            stats = new Stats(mReceived, events.size(), mRequestIds,
+                    SystemClock.elapsedRealtime() - mFirstReceivedAt, reason);
+            mPending = new ArrayList<>();
+            mReceived = 0;
+            mRequestIds = 0;
+        }
+        mListener.onBatch(events, stats);
+    }
+}
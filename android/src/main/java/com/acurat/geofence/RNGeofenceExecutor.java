@@ -0,0 +1,77 @@
+package com.acurat.geofence;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single background thread that reads regions passed from JS, updates the registry and
+ * receives the callbacks of the Play Services tasks, so that large registrations neither
+ * block the native modules thread nor the main thread. One thread keeps the calls of the
+ * module in order.
+ * <p>
+ * Module calls are bounded by {@link #submit}, task callbacks passed to {@link #get()} are
+ * never rejected since dropping one would leave a promise unsettled.
+ */
+final class RNGeofenceExecutor {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sExecutor = createExecutor();
+    private static final AtomicInteger sQueued = new AtomicInteger();
+
+    private RNGeofenceExecutor() {
+    }
+
+    /**
+     * Executor for the callbacks and continuations of Play Services tasks.
+     */
+    static Executor get() {
+        return sExecutor;
+    }
+
+    /**
+     * Runs a module call on the worker thread, throwing a {@code RejectedExecutionException}
+     * when {@link RNGeofenceConstants#MAX_QUEUED_OPERATIONS} calls are already waiting.
+     */
+    static void submit(final Runnable operation) {
+        if (sQueued.incrementAndGet() > RNGeofenceConstants.MAX_QUEUED_OPERATIONS) {
+            sQueued.decrementAndGet();
+            throw new RejectedExecutionException("Too many pending geofence operations");
+        }
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sQueued.decrementAndGet();
+                operation.run();
+            }
+        });
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "RNGeofenceWorker");
+                    }
+                });
+        // The thread is not kept around while the module is idle
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
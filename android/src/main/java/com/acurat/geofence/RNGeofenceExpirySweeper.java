@@ -0,0 +1,100 @@
+package com.acurat.geofence;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.List;
+
+import static com.acurat.geofence.RNGeofenceConstants.MODULE_NAME;
+
+/**
+ * Removes the regions whose {@code expirationDuration} ran out from the registry, as Play
+ * Services drops them without telling. The expiries are kept on the timing wheel of the
+ * registry and only one Handler callback is pending at a time, for the next expiry. All
+ * regions expiring together are reported in one call to the listener.
+ * <p>
+ * Expiries use the wall clock, so they survive a reboot. Regions that expired while the
+ * process was not running are removed once the registry is loaded.
+ */
+final class RNGeofenceExpirySweeper {
+
+    interface Listener {
+        void onExpired(List<String> ids);
+    }
+
+    private static RNGeofenceExpirySweeper sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Runnable mSweepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sweep();
+        }
+    };
+    private Listener mListener;
+    private long mWakeAt = Long.MAX_VALUE;
+
+    private RNGeofenceExpirySweeper(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread("RNGeofenceExpiry");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    static synchronized RNGeofenceExpirySweeper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RNGeofenceExpirySweeper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Removes the listener if it is still the current one.
+     */
+    synchronized void removeListener(Listener listener) {
+        if (mListener == listener) {
+            mListener = null;
+        }
+    }
+
+    /**
+     * Wakes up for the next expiry of the registry, to be called after regions were added.
+     */
+    synchronized void reschedule() {
+        long wakeAt = RNGeofenceRegistry.getInstance().nextExpiry();
+        if (wakeAt == mWakeAt) {
+            return;
+        }
+        mWakeAt = wakeAt;
+        mHandler.removeCallbacks(mSweepRunnable);
+        if (wakeAt != Long.MAX_VALUE) {
+            mHandler.postDelayed(mSweepRunnable, Math.max(0, wakeAt - System.currentTimeMillis()));
+        }
+    }
+
+    private void sweep() {
+        List<String> expired = RNGeofenceRegistry.getInstance().removeExpired(System.currentTimeMillis());
+        Listener listener;
+        synchronized (this) {
+            mWakeAt = Long.MAX_VALUE;
+            listener = mListener;
+        }
+        if (!expired.isEmpty()) {
+            Log.i(MODULE_NAME, "Removed " + expired.size() + " expired regions");
+            RNGeofenceMetrics.getInstance().regionsExpired.addAndGet(expired.size());
+            if (listener != null) {
+                listener.onExpired(expired);
+            }
+            // Fills the slots of expired active regions with the next nearest ones
+            RNGeofenceRegistrar.update(mContext);
+        }
+        reschedule();
+    }
+}
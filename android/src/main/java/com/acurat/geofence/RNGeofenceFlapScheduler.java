@@ -0,0 +1,151 @@
+package com.acurat.geofence;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.location.Geofence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.acurat.geofence.RNGeofenceConstants.MODULE_NAME;
+
+/**
+ * Runs the {@link RNGeofenceDebouncer} of the process. Enters and exits are passed through it
+ * before they are delivered, and held transitions are delivered from a Handler callback once
+ * their hold time ran out. Only one callback is pending at a time, for the earliest deadline.
+ * <p>
+ * The configuration is persisted so that transitions received while the app is not running
+ * are debounced too. Held transitions are lost if the process dies.
+ */
+final class RNGeofenceFlapScheduler {
+
+    private static final String PREFERENCES = "RNGeofenceFlap";
+    private static final String KEY_HOLD_TIME = "holdTime";
+    private static final String KEY_MARGIN = "margin";
+
+    private static RNGeofenceFlapScheduler sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final SharedPreferences mPreferences;
+    private final RNGeofenceDebouncer mDebouncer = new RNGeofenceDebouncer();
+    private final Runnable mTickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+    private long mWakeAt = Long.MAX_VALUE;
+
+    private RNGeofenceFlapScheduler(Context context) {
+        mContext = context;
+        mPreferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        mDebouncer.configure(mPreferences.getLong(KEY_HOLD_TIME, 0),
+                Float.intBitsToFloat(mPreferences.getInt(KEY_MARGIN, 0)));
+        HandlerThread thread = new HandlerThread("RNGeofenceFlap");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    static synchronized RNGeofenceFlapScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RNGeofenceFlapScheduler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Sets the minimum time in milliseconds between two delivered transitions of a region and
+     * the distance in meters past the border that delivers a transition right away. A hold
+     * time of 0 turns debouncing off.
+     */
+    synchronized void configure(long holdTime, float margin) {
+        mDebouncer.configure(holdTime, margin);
+        if (!mDebouncer.isEnabled()) {
+            cancelWake();
+        }
+        mPreferences.edit()
+                .putLong(KEY_HOLD_TIME, holdTime)
+                .putInt(KEY_MARGIN, Float.floatToIntBits(margin))
+                .apply();
+    }
+
+    /**
+     * Returns whether an enter or exit of the region should be delivered now. Transitions
+     * that are held or suppressed are delivered later or counted instead.
+     */
+    synchronized boolean onTransition(GeofenceOptions options, int transition, double latitude, double longitude) {
+        if (!mDebouncer.isEnabled() || options == null) {
+            return true;
+        }
+        long suppressed = mDebouncer.getSuppressed();
+        long now = SystemClock.elapsedRealtime();
+        boolean deliver = mDebouncer.onTransition(options.id, transition, now,
+                RNGeofenceDebouncer.distance(options, latitude, longitude), options.radius);
+        RNGeofenceMetrics.getInstance().transitionsDebounced.addAndGet(mDebouncer.getSuppressed() - suppressed);
+        // Also wakes up for the end of the hold time of a delivered transition, which releases its state
+        wakeAt(mDebouncer.nextDeadline());
+        return deliver;
+    }
+
+    synchronized void clear() {
+        mDebouncer.clear();
+        cancelWake();
+    }
+
+    private void tick() {
+        List<String> entered = new ArrayList<>();
+        List<String> exited = new ArrayList<>();
+        synchronized (this) {
+            mWakeAt = Long.MAX_VALUE;
+            List<String> ids = new ArrayList<>();
+            List<Integer> transitions = new ArrayList<>();
+            mDebouncer.advance(SystemClock.elapsedRealtime(), ids, transitions);
+            RNGeofenceRegistry registry = RNGeofenceRegistry.getInstance();
+            for (int i = 0; i < ids.size(); i++) {
+                String id = ids.get(i);
+                int transition = transitions.get(i);
+                GeofenceOptions options = registry.get(id);
+                // The region may have been removed meanwhile, or not notify of the transition
+                if (options == null || (options.transitionTypes & transition) == 0) {
+                    continue;
+                }
+                (transition == Geofence.GEOFENCE_TRANSITION_ENTER ? entered : exited).add(id);
+            }
+            if (mDebouncer.nextDeadline() != Long.MAX_VALUE) {
+                wakeAt(mDebouncer.nextDeadline());
+            }
+        }
+        dispatch(Geofence.GEOFENCE_TRANSITION_ENTER, entered);
+        dispatch(Geofence.GEOFENCE_TRANSITION_EXIT, exited);
+    }
+
+    private void dispatch(int transition, List<String> requestIds) {
+        if (requestIds.isEmpty()) {
+            return;
+        }
+        RNGeofenceDataObject event = new RNGeofenceDataObject(transition,
+                requestIds.toArray(new String[requestIds.size()]), System.currentTimeMillis());
+        Log.i(MODULE_NAME, "Hold time expired " + event);
+        RNGeofenceBroadcastReceiver.dispatch(mContext, event);
+    }
+
+    private void wakeAt(long deadline) {
+        if (deadline >= mWakeAt) {
+            return;
+        }
+        mWakeAt = deadline;
+        mHandler.removeCallbacks(mTickRunnable);
+        mHandler.postDelayed(mTickRunnable, Math.max(0, deadline - SystemClock.elapsedRealtime()));
+    }
+
+    private void cancelWake() {
+        mHandler.removeCallbacks(mTickRunnable);
+        mWakeAt = Long.MAX_VALUE;
+    }
+}
@@ -4,18 +4,40 @@ import android.app.ActivityManager;
 import android.content.Context;
 
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofenceStatusCodes;
 
 import java.util.List;
 
 final class RNGeofenceHelper {
 
+    private static final int STATE_UNKNOWN = 0;
+    private static final int STATE_FOREGROUND = 1;
+    private static final int STATE_BACKGROUND = 2;
+
+    // Driven by the host lifecycle callbacks of the module, unknown until the first one
+    private static volatile int sForegroundState = STATE_UNKNOWN;
+
     private RNGeofenceHelper() {
     }
 
+    public static void setAppOnForeground(boolean foreground) {
+        sForegroundState = foreground ? STATE_FOREGROUND : STATE_BACKGROUND;
+    }
+
     public static boolean isAppOnForeground(Context context) {
+        int state = sForegroundState;
+        if (state != STATE_UNKNOWN) {
+            return state == STATE_FOREGROUND;
+        }
+        // No lifecycle callback yet, e.g. the process was started for this event
+        return isAppProcessOnForeground(context);
+    }
+
+    private static boolean isAppProcessOnForeground(Context context) {
         ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
         List<ActivityManager.RunningAppProcessInfo> appProcesses =
                 activityManager.getRunningAppProcesses();
@@ -36,22 +58,162 @@ final class RNGeofenceHelper {
     public static WritableMap convertDataObjectToRNMap(RNGeofenceDataObject data) {
 
         WritableMap map = Arguments.createMap();
-        WritableArray ids = Arguments.fromList(data.getRequestIds());
+        WritableArray ids = Arguments.createArray();
+        for (String id : data.getRequestIds()) {
+            ids.pushString(id);
+        }
         map.putArray("ids", ids);
-        map.putString("transitionType", data.getTransitionType());
+        map.putString("transitionType", getTransitionCode(data.getTransition()));
+        map.putDouble("timestamp", data.getTimestamp());
         return map;
 
     }
 
-    public static String getTransitionCode(int transitionType) {
-        switch (transitionType) {
-            case Geofence.GEOFENCE_TRANSITION_ENTER:
-                return RNGeofenceConstants.ENTER;
-            case Geofence.GEOFENCE_TRANSITION_EXIT:
-                return RNGeofenceConstants.EXIT;
-            default:
-                return "Unknown Transition";
+    /**
+     * Same as {@link #convertDataObjectToRNMap} with the handles of the regions instead of their
+     * ids. Ids of regions that were removed meanwhile have no handle and are kept as ids.
+     */
+    static WritableMap convertDataObjectToCompactRNMap(RNGeofenceDataObject data, RNGeofenceRegistry registry) {
+
+        WritableMap map = Arguments.createMap();
+        WritableArray handles = Arguments.createArray();
+        WritableArray ids = null;
+        for (String id : data.getRequestIds()) {
+            int handle = registry.getHandle(id);
+            if (handle != RNGeofenceIdDictionary.NO_HANDLE) {
+                handles.pushInt(handle);
+            } else {
+                if (ids == null) {
+                    ids = Arguments.createArray();
+                }
+                ids.pushString(id);
+            }
+        }
+        map.putArray("handles", handles);
+        if (ids != null) {
+            map.putArray("ids", ids);
+        }
+        map.putString("transitionType", getTransitionCode(data.getTransition()));
+        map.putDouble("timestamp", data.getTimestamp());
+        return map;
+
+    }
+
+    /**
+     * Reads and validates a region, throwing an {@code IllegalArgumentException} if it is invalid.
+     */
+    static GeofenceOptions convertRNMapToOptions(ReadableMap readableMap) {
+        return GeofenceOptions.fromReader(new RNGeofenceReadableMapReader(readableMap));
+    }
+
+    public static WritableMap convertOptionsToRNMap(GeofenceOptions options) {
+
+        WritableMap map = Arguments.createMap();
+        map.putString("id", options.id);
+        map.putDouble("latitude", options.latitude);
+        map.putDouble("longitude", options.longitude);
+        map.putDouble("radius", options.radius);
+        if (options.expirationDuration != Geofence.NEVER_EXPIRE) {
+            map.putDouble("expirationDuration", options.expirationDuration);
+            map.putDouble("expiresAt", options.expiresAt);
+        }
+        if ((options.transitionTypes & Geofence.GEOFENCE_TRANSITION_DWELL) != 0) {
+            map.putInt("loiteringDelay", options.loiteringDelay);
         }
+        if ((options.transitionTypes & Geofence.GEOFENCE_TRANSITION_ENTER) == 0) {
+            map.putBoolean("notifyOnEnter", false);
+        }
+        if ((options.transitionTypes & Geofence.GEOFENCE_TRANSITION_EXIT) == 0) {
+            map.putBoolean("notifyOnExit", false);
+        }
+        if (options.polygon != null) {
+            WritableArray polygon = Arguments.createArray();
+            for (int i = 0; i < options.polygon.latitudes.length; i++) {
+                WritableMap vertex = Arguments.createMap();
+                vertex.putDouble("latitude", options.polygon.latitudes[i]);
+                vertex.putDouble("longitude", options.polygon.longitudes[i]);
+                polygon.pushMap(vertex);
+            }
+            map.putArray("polygon", polygon);
+        }
+        if (options.tags.length > 0) {
+            WritableArray tags = Arguments.createArray();
+            for (String tag : options.tags) {
+                tags.pushString(tag);
+            }
+            map.putArray("tags", tags);
+        }
+        return map;
+
+    }
+
+    static WritableMap convertMetricsToRNMap(RNGeofenceMetrics metrics) {
+
+        WritableMap transitions = Arguments.createMap();
+        transitions.putDouble("received", metrics.transitionsReceived.get());
+        transitions.putDouble("suppressed", metrics.transitionsSuppressed.get());
+        transitions.putDouble("debounced", metrics.transitionsDebounced.get());
+        transitions.putDouble("emitted", metrics.transitionsEmitted.get());
+        transitions.putDouble("journaled", metrics.transitionsJournaled.get());
+        transitions.putDouble("replayed", metrics.transitionsReplayed.get());
+        transitions.putDouble("dropped", metrics.transitionsDropped.get());
+
+        WritableMap latency = Arguments.createMap();
+        latency.putMap("transition", convertHistogramToRNMap(metrics.transitionLatency));
+        latency.putMap("add", convertHistogramToRNMap(metrics.addLatency));
+        latency.putMap("remove", convertHistogramToRNMap(metrics.removeLatency));
+
+        WritableMap failures = Arguments.createMap();
+        for (int i = 0; i < metrics.getStatusCodeCount(); i++) {
+            int statusCode = metrics.getStatusCode(i);
+            String name = statusCode == RNGeofenceMetrics.UNKNOWN_STATUS ?
+                    RNGeofenceConstants.UNKNOWN_ERROR :
+                    GeofenceStatusCodes.getStatusCodeString(statusCode);
+            failures.putDouble(name, metrics.getFailures(i));
+        }
+        if (metrics.getOtherFailures() > 0) {
+            failures.putDouble("OTHER", metrics.getOtherFailures());
+        }
+
+        WritableMap map = Arguments.createMap();
+        map.putMap("transitions", transitions);
+        map.putMap("latency", latency);
+        map.putMap("failures", failures);
+        map.putDouble("retries", metrics.registrationRetries.get());
+        map.putDouble("expired", metrics.regionsExpired.get());
+        return map;
+
+    }
+
+    private static WritableMap convertHistogramToRNMap(RNGeofenceMetrics.Histogram histogram) {
+
+        WritableMap map = Arguments.createMap();
+        map.putDouble("count", histogram.getCount());
+        map.putDouble("mean", histogram.getMean());
+        map.putDouble("p50", histogram.getPercentile(0.5));
+        map.putDouble("p90", histogram.getPercentile(0.9));
+        map.putDouble("p99", histogram.getPercentile(0.99));
+        map.putDouble("max", histogram.getMax());
+        return map;
+
+    }
+
+    public static WritableMap createFailureMap(String id, int index, String message) {
+
+        WritableMap map = Arguments.createMap();
+        if (id != null) {
+            map.putString("id", id);
+        }
+        if (index >= 0) {
+            map.putInt("index", index);
+        }
+        map.putString("error", message);
+        return map;
+
+    }
+
+    public static String getTransitionCode(int transitionType) {
+        return RNGeofenceDataObject.getTransitionType(transitionType);
     }
 
 }
@@ -0,0 +1,167 @@
+package com.acurat.geofence;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.acurat.geofence.RNGeofenceConstants.MODULE_NAME;
+
+/**
+ * Append-only file with the transitions received while the app is not in the foreground.
+ * They are replayed to JS in order once the app comes back.
+ */
+final class RNGeofenceJournal {
+
+    private static final String JOURNAL_FILE = "rngeofence.journal";
+    private static final long MAX_JOURNAL_SIZE = 1024 * 1024;
+
+    private static RNGeofenceJournal sInstance;
+
+    private final File mFile;
+    // Length of the complete records, or -1 until the file was checked in this process
+    private long mValidLength = -1;
+
+    private RNGeofenceJournal(File file) {
+        mFile = file;
+    }
+
+    static synchronized RNGeofenceJournal getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RNGeofenceJournal(new File(context.getFilesDir(), JOURNAL_FILE));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Appends a transition with a single write. A record left incomplete by a process that
+     * died while writing it is cut off first, so the records after it stay readable.
+     */
+    synchronized void append(RNGeofenceDataObject event) {
+        if (mFile.length() > MAX_JOURNAL_SIZE) {
+            Log.w(MODULE_NAME, "Transition journal is full, dropping " + event);
+            RNGeofenceMetrics.getInstance().transitionsDropped.addAndGet(event.getRequestIds().length);
+            return;
+        }
+
+        FileOutputStream out = null;
+        try {
+            byte[] data = RNGeofenceTransitionCodec.encode(event, 4);
+            int length = data.length - 4;
+            data[0] = (byte) (length >>> 24);
+            data[1] = (byte) (length >>> 16);
+            data[2] = (byte) (length >>> 8);
+            data[3] = (byte) length;
+
+            if (mValidLength < 0) {
+                mValidLength = truncateIncomplete();
+            }
+            out = new FileOutputStream(mFile, true);
+            // Unknown again if the write fails halfway
+            mValidLength = -1;
+            out.write(data);
+            mValidLength = mFile.length();
+            RNGeofenceMetrics.getInstance().transitionsJournaled.addAndGet(event.getRequestIds().length);
+        } catch (IOException e) {
+            Log.e(MODULE_NAME, "Could not write transition journal", e);
+            RNGeofenceMetrics.getInstance().transitionsDropped.addAndGet(event.getRequestIds().length);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Cuts the file after its last complete record and returns its length.
+     */
+    private long truncateIncomplete() throws IOException {
+        if (!mFile.exists()) {
+            return 0;
+        }
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            long length = file.length();
+            long valid = 0;
+            byte[] header = new byte[4];
+            while (length - valid >= header.length) {
+                file.seek(valid);
+                file.readFully(header);
+                int record = ((header[0] & 0xff) << 24) | ((header[1] & 0xff) << 16)
+                        | ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+                if (record < RNGeofenceTransitionCodec.MIN_LENGTH || record > length - valid - header.length) {
+                    break;
+                }
+                valid += header.length + record;
+            }
+            if (valid < length) {
+                Log.w(MODULE_NAME, "Cutting " + (length - valid) + " bytes of an incomplete record off the transition journal");
+                file.setLength(valid);
+            }
+            return valid;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Returns the journaled transitions in the order they were received and empties the journal.
+     * Reading stops at the first record that is incomplete or corrupt.
+     */
+    synchronized List<RNGeofenceDataObject> drain() {
+        List<RNGeofenceDataObject> events = new ArrayList<>();
+        if (!mFile.exists()) {
+            return events;
+        }
+
+        DataInputStream in = null;
+        try {
+            long remaining = mFile.length();
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                remaining -= 4;
+                if (length < RNGeofenceTransitionCodec.MIN_LENGTH || length > remaining) {
+                    throw new IOException("Record of " + length + " bytes with " + remaining + " left");
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                remaining -= length;
+                events.add(RNGeofenceTransitionCodec.decode(data));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Everything before the bad record is kept, the rest can't be framed anymore
+            Log.w(MODULE_NAME, "Transition journal has an incomplete or corrupt record: " + e.getMessage());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        if (!mFile.delete()) {
+            Log.e(MODULE_NAME, "Could not delete transition journal");
+        }
+        mValidLength = mFile.exists() ? -1 : 0;
+        return events;
+    }
+}
@@ -0,0 +1,210 @@
+package com.acurat.geofence;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.common.api.ApiException;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the module, shared by everything running in the
+ * process. Recording only updates preallocated atomics, so it can be done on every
+ * transition and every Play Services call.
+ */
+final class RNGeofenceMetrics {
+
+    // Status code recorded for failures that are not an ApiException
+    static final int UNKNOWN_STATUS = -1;
+    private static final int MAX_STATUS_CODES = 16;
+    private static final int NO_STATUS = Integer.MIN_VALUE;
+
+    private static final RNGeofenceMetrics sInstance = new RNGeofenceMetrics();
+
+    // Time from the transition broadcast until it was emitted to JS
+    final Histogram transitionLatency = new Histogram();
+    // Time until an addGeofences or removeGeofences task completed
+    final Histogram addLatency = new Histogram();
+    final Histogram removeLatency = new Histogram();
+
+    final AtomicLong transitionsReceived = new AtomicLong();
+    final AtomicLong transitionsSuppressed = new AtomicLong();
+    // Enters and exits undone within the flap hold time
+    final AtomicLong transitionsDebounced = new AtomicLong();
+    final AtomicLong transitionsEmitted = new AtomicLong();
+    final AtomicLong transitionsJournaled = new AtomicLong();
+    final AtomicLong transitionsReplayed = new AtomicLong();
+    final AtomicLong transitionsDropped = new AtomicLong();
+    // Registrations repeated after location was unavailable or too many calls were pending
+    final AtomicLong registrationRetries = new AtomicLong();
+    // Regions removed because their expirationDuration ran out
+    final AtomicLong regionsExpired = new AtomicLong();
+
+    private final AtomicIntegerArray mStatusCodes = new AtomicIntegerArray(MAX_STATUS_CODES);
+    private final AtomicLongArray mFailures = new AtomicLongArray(MAX_STATUS_CODES);
+    private final AtomicLong mOtherFailures = new AtomicLong();
+
+    private RNGeofenceMetrics() {
+        for (int i = 0; i < MAX_STATUS_CODES; i++) {
+            mStatusCodes.set(i, NO_STATUS);
+        }
+    }
+
+    static RNGeofenceMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Records the latency of an addGeofences task and its failure, if any.
+     */
+    <T> Task<T> timeAdd(Task<T> task) {
+        return time(task, addLatency);
+    }
+
+    <T> Task<T> timeRemove(Task<T> task) {
+        return time(task, removeLatency);
+    }
+
+    private <T> Task<T> time(Task<T> task, final Histogram histogram) {
+        final long start = SystemClock.elapsedRealtime();
+        task.addOnCompleteListener(new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(@NonNull Task<T> task) {
+                histogram.record(SystemClock.elapsedRealtime() - start);
+                if (!task.isSuccessful()) {
+                    recordFailure(task.getException());
+                }
+            }
+        });
+        return task;
+    }
+
+    void recordFailure(Exception e) {
+        recordFailure(e instanceof ApiException ? ((ApiException) e).getStatusCode() : UNKNOWN_STATUS);
+    }
+
+    void recordFailure(int statusCode) {
+        for (int i = 0; i < MAX_STATUS_CODES; i++) {
+            int code = mStatusCodes.get(i);
+            if (code == NO_STATUS && mStatusCodes.compareAndSet(i, NO_STATUS, statusCode)) {
+                code = statusCode;
+            } else if (code == NO_STATUS) {
+                code = mStatusCodes.get(i);
+            }
+            if (code == statusCode) {
+                mFailures.incrementAndGet(i);
+                return;
+            }
+        }
+        mOtherFailures.incrementAndGet();
+    }
+
+    /**
+     * Number of distinct status codes recorded, see {@link #getStatusCode} and {@link #getFailures}.
+     */
+    int getStatusCodeCount() {
+        int count = 0;
+        while (count < MAX_STATUS_CODES && mStatusCodes.get(count) != NO_STATUS) {
+            count++;
+        }
+        return count;
+    }
+
+    int getStatusCode(int index) {
+        return mStatusCodes.get(index);
+    }
+
+    long getFailures(int index) {
+        return mFailures.get(index);
+    }
+
+    /**
+     * Failures whose status code did not fit in the table.
+     */
+    long getOtherFailures() {
+        return mOtherFailures.get();
+    }
+
+    /**
+     * Latency histogram in milliseconds. Buckets are log-linear, four per power of two, so
+     * percentiles are within 25% of the recorded values.
+     */
+    static final class Histogram {
+
+        private static final int SUB_BUCKETS = 4;
+        private static final int BUCKETS = SUB_BUCKETS + (63 - 2) * SUB_BUCKETS;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0) {
+                // Wall clock adjustments can make a latency negative
+                value = 0;
+            }
+            mBuckets.incrementAndGet(bucket(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        double getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : (double) mSum.get() / count;
+        }
+
+        long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given quantile, capped at the maximum.
+         */
+        long getPercentile(double quantile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+            return SUB_BUCKETS + (exponent - 2) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + 2;
+            int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 2)) - 1;
+        }
+    }
+}
@@ -2,15 +2,12 @@ package com.acurat.geofence;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
-import android.app.PendingIntent;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
-import android.support.v4.content.LocalBroadcastManager;
+import android.util.Base64;
 import android.util.Log;
 
 import com.facebook.react.bridge.Arguments;
@@ -22,22 +19,24 @@ import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableNativeArray;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.google.android.gms.common.api.ApiException;
-import com.google.android.gms.location.Geofence;
 import com.google.android.gms.location.GeofenceStatusCodes;
-import com.google.android.gms.location.GeofencingClient;
-import com.google.android.gms.location.GeofencingRequest;
-import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.acurat.geofence.RNGeofenceConstants.MODULE_NAME;
 import static com.acurat.geofence.RNGeofenceConstants.REQUEST_PERMISSIONS_REQUEST_CODE;
@@ -45,14 +44,30 @@ import static com.acurat.geofence.RNGeofenceConstants.UNKNOWN_ERROR;
 
 public class RNGeofenceModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
 
-    private final ConnectivityBroadcastReceiver mMessageReceiver;
-    private GeofencingClient mGeofencingClient;
-    private PendingIntent mGeofencePendingIntent;
+    private final TransitionSubscriber mSubscriber;
+    private final ExpiryListener mExpiryListener;
+    // Number of notify() callbacks in JS, transitions are kept in the journal while there are none
+    private final AtomicInteger mTransitionListeners = new AtomicInteger();
+    private final RNGeofenceRegistry mRegistry;
+    private final RNGeofenceEventBatcher mBatcher;
+    private final Handler mMetricsHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mMetricsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            emitMetrics();
+        }
+    };
+    private long mMetricsInterval;
+    private volatile boolean mCompactEvents;
 
     public RNGeofenceModule(ReactApplicationContext reactContext) {
         super(reactContext);
-        mGeofencingClient = LocationServices.getGeofencingClient(reactContext);
-        mMessageReceiver = new ConnectivityBroadcastReceiver();
+        mRegistry = RNGeofenceRegistrar.getRegistry(reactContext);
+        mSubscriber = new TransitionSubscriber();
+        mExpiryListener = new ExpiryListener();
+        RNGeofenceExpirySweeper.getInstance(reactContext).setListener(mExpiryListener);
+        mBatcher = new RNGeofenceEventBatcher(new Handler(Looper.getMainLooper()), new BatchListener());
+        reactContext.addLifecycleEventListener(this);
     }
 
     @Override
@@ -67,18 +82,68 @@ public class RNGeofenceModule extends ReactContextBaseJavaModule implements Life
         final Map<String, String> types = new HashMap<>();
         types.put(RNGeofenceConstants.ENTER, RNGeofenceConstants.ENTER);
         types.put(RNGeofenceConstants.EXIT, RNGeofenceConstants.EXIT);
+        types.put(RNGeofenceConstants.DWELL, RNGeofenceConstants.DWELL);
         constants.put("TRANSITION_TYPES", types);
         return constants;
     }
 
     @ReactMethod
     public void initialize(final ReadableMap readableMap) {
-        registerReceiver();
+        subscribe();
+        replayJournal();
+        // Location updates for suppressed polygon enters are lost when the app is force stopped
+        RNGeofencePolygonWatcher.getInstance(getReactApplicationContext()).update();
+        if (readableMap.hasKey("batchWindow")) {
+            int batchSize = readableMap.hasKey("batchSize") ?
+                    readableMap.getInt("batchSize") :
+                    RNGeofenceConstants.DEFAULT_BATCH_SIZE;
+            mBatcher.configure(readableMap.getInt("batchWindow"), batchSize);
+        }
+        if (readableMap.hasKey("maxActiveRegions")) {
+            mRegistry.setActiveLimit(readableMap.getInt("maxActiveRegions"));
+        }
+        if (readableMap.hasKey("clusterRadius")
+                && RNGeofenceRegistrar.setClusterRadius(getReactApplicationContext(),
+                (float) readableMap.getDouble("clusterRadius"))
+                && mRegistry.size() > 0) {
+            RNGeofenceRegistrar.update(getReactApplicationContext());
+        }
+        if (readableMap.hasKey("metricsInterval")) {
+            mMetricsInterval = Math.max(0, readableMap.getInt("metricsInterval"));
+            mMetricsHandler.removeCallbacks(mMetricsRunnable);
+            if (mMetricsInterval > 0) {
+                mMetricsHandler.postDelayed(mMetricsRunnable, mMetricsInterval);
+            }
+        }
+        if (readableMap.hasKey("flapHoldTime")) {
+            float margin = readableMap.hasKey("flapMargin") ? (float) readableMap.getDouble("flapMargin") : 0;
+            RNGeofenceFlapScheduler.getInstance(getReactApplicationContext())
+                    .configure(readableMap.getInt("flapHoldTime"), margin);
+        }
+        if (readableMap.hasKey("compactEvents")) {
+            mCompactEvents = readableMap.getBoolean("compactEvents");
+        }
         if (readableMap.hasKey("requestPermission") && readableMap.getBoolean("requestPermission")) {
             getUserPermission();
         }
     }
 
+    /**
+     * Called by notify() once its listeners are added, delivers the journaled transitions.
+     */
+    @ReactMethod
+    public void addTransitionListener() {
+        mTransitionListeners.incrementAndGet();
+        replayJournal();
+    }
+
+    @ReactMethod
+    public void removeTransitionListener() {
+        if (mTransitionListeners.decrementAndGet() < 0) {
+            mTransitionListeners.set(0);
+        }
+    }
+
     @ReactMethod
     public void requestPermission() {
         Log.i(MODULE_NAME, "Requesting permission");
@@ -104,122 +169,453 @@ public class RNGeofenceModule extends ReactContextBaseJavaModule implements Life
 
     @ReactMethod
     public void add(final ReadableMap readableMap, final Promise promise) {
+        runOnWorker(promise, new Runnable() {
+            @Override
+            public void run() {
+                final GeofenceOptions options;
+                try {
+                    options = RNGeofenceHelper.convertRNMapToOptions(readableMap);
+                } catch (IllegalArgumentException e) {
+                    promise.reject(MODULE_NAME, e.getMessage(), e);
+                    return;
+                }
+                mRegistry.put(options);
 
-        final Geofence geofence = createGeofence(readableMap);
-        final List<Geofence> geofences = new ArrayList<>();
-        geofences.add(geofence);
-
-        final WritableArray geofenceRequestIds = Arguments.createArray();
-        for (Geofence g : geofences) {
-            geofenceRequestIds.pushString(g.getRequestId());
-        }
-
-        GeofencingRequest geofencingRequest = createGeofenceRequest(geofences);
-
-        addGeofence(promise, geofencingRequest, false);
+                List<String> ids = new ArrayList<>();
+                ids.add(options.id);
+                updateActiveGeofences(success(ids, promise, false), failure(promise));
+            }
+        });
     }
 
     @ReactMethod
     public void addAll(final ReadableArray readableArray, final Promise promise) {
-        final List<Geofence> geofences = createGeofences(readableArray);
-        final WritableArray geofenceRequestIds = Arguments.createArray();
-        for (Geofence g : geofences) {
-            geofenceRequestIds.pushString(g.getRequestId());
-        }
+        runOnWorker(promise, new Runnable() {
+            @Override
+            public void run() {
+                List<GeofenceOptions> regions = new ArrayList<>(readableArray.size());
+                List<String> ids = new ArrayList<>(readableArray.size());
+                try {
+                    for (int i = 0; i < readableArray.size(); ++i) {
+                        GeofenceOptions options = RNGeofenceHelper.convertRNMapToOptions(readableArray.getMap(i));
+                        regions.add(options);
+                        ids.add(options.id);
+                    }
+                } catch (IllegalArgumentException e) {
+                    promise.reject(MODULE_NAME, e.getMessage(), e);
+                    return;
+                }
+                mRegistry.putAll(regions);
 
-        GeofencingRequest geofencingRequest = createGeofenceRequest(geofences);
+                updateActiveGeofences(success(ids, promise, true), failure(promise));
+            }
+        });
+    }
 
-        addGeofence(promise, geofencingRequest, true);
+    /**
+     * Adds regions without failing as a whole. Resolves with the ids that were added, the ids
+     * Play Services could not add for now and that are retried, and the regions that were
+     * invalid or rejected for good.
+     */
+    @ReactMethod
+    public void addAllPartial(final ReadableArray readableArray, final Promise promise) {
+        runOnWorker(promise, new Runnable() {
+            @Override
+            public void run() {
+                putAllPartial(readableArray, promise);
+            }
+        });
     }
 
-    private List<Geofence> createGeofences(final ReadableArray readableArray) {
-        List<Geofence> geofences = new ArrayList<>();
+    private void putAllPartial(ReadableArray readableArray, final Promise promise) {
+        final WritableArray failed = Arguments.createArray();
+        final List<GeofenceOptions> regions = new ArrayList<>(readableArray.size());
+        final int[] indices = new int[readableArray.size()];
         for (int i = 0; i < readableArray.size(); ++i) {
-            geofences.add(createGeofence(readableArray.getMap(i)));
+            ReadableMap readableMap = readableArray.getMap(i);
+            try {
+                indices[regions.size()] = i;
+                regions.add(RNGeofenceHelper.convertRNMapToOptions(readableMap));
+            } catch (RuntimeException e) {
+                String id = readableMap.hasKey("id") ? readableMap.getString("id") : null;
+                failed.pushMap(RNGeofenceHelper.createFailureMap(id, i, e.getMessage()));
+            }
         }
-        return geofences;
-    }
-
-
-    private Geofence createGeofence(final ReadableMap readableMap) {
-        GeofenceOptions options = GeofenceOptions.fromReactMap(readableMap);
-        return new Geofence.Builder()
-                .setRequestId(options.id)
-                .setCircularRegion(options.latitude,
-                        options.longitude,
-                        options.radius)
-                .setTransitionTypes(options.transitionTypes)
-                .setLoiteringDelay(options.loiteringDelay)
-                .setExpirationDuration(options.expirationDuration)
-                .build();
+        mRegistry.putAll(regions);
 
+        RNGeofenceRegistrar.updateInChunks(getReactApplicationContext())
+                .addOnSuccessListener(RNGeofenceExecutor.get(), new OnSuccessListener<Map<String, Exception>>() {
+                    @Override
+                    public void onSuccess(Map<String, Exception> failures) {
+                        WritableArray added = Arguments.createArray();
+                        WritableArray pending = Arguments.createArray();
+                        List<String> rejected = new ArrayList<>();
+                        for (int i = 0; i < regions.size(); i++) {
+                            String id = regions.get(i).id;
+                            Exception e = failures.get(id);
+                            if (e == null) {
+                                added.pushString(id);
+                            } else if (RNGeofenceRetryScheduler.isRetryable(e)) {
+                                pending.pushString(id);
+                            } else {
+                                rejected.add(id);
+                                failed.pushMap(RNGeofenceHelper.createFailureMap(id, indices[i],
+                                        RNGeofenceErrorMessages.getErrorString(getReactApplicationContext(), e)));
+                            }
+                        }
+                        // Regions of this call rejected for good are dropped. Pending regions and
+                        // rejected regions of earlier calls are registered again by the next
+                        // selection, which is retried if any failure is temporary
+                        mRegistry.removeAll(rejected);
+                        if (failures.size() > rejected.size()) {
+                            Exception cause = failures.values().iterator().next();
+                            for (Exception e : failures.values()) {
+                                if (RNGeofenceRetryScheduler.isRetryable(e)) {
+                                    cause = e;
+                                    break;
+                                }
+                            }
+                            RNGeofenceRegistrar.invalidate(getReactApplicationContext(), cause);
+                        }
+
+                        WritableMap result = Arguments.createMap();
+                        result.putArray("added", added);
+                        result.putArray("pending", pending);
+                        result.putArray("failed", failed);
+                        promise.resolve(result);
+                    }
+                })
+                .addOnFailureListener(RNGeofenceExecutor.get(), failure(promise));
     }
 
-    private GeofencingRequest createGeofenceRequest(final List<Geofence> geofences) {
-        return new GeofencingRequest.Builder()
-                .setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_ENTER)
-                .addGeofences(geofences)
-                .build();
+    /**
+     * Adds the regions of a file or a base64 string in the packed or CSV layout of
+     * {@link RNGeofenceImporter}, without passing each region over the bridge. Resolves with
+     * the number of regions read.
+     */
+    @ReactMethod
+    public void importRegions(final ReadableMap source, final Promise promise) {
+        runOnWorker(promise, new Runnable() {
+            @Override
+            public void run() {
+                final List<GeofenceOptions> regions;
+                try {
+                    if (source.hasKey("path")) {
+                        regions = RNGeofenceImporter.read(new File(stripFileScheme(source.getString("path"))));
+                    } else if (source.hasKey("data")) {
+                        byte[] data = Base64.decode(source.getString("data"), Base64.DEFAULT);
+                        regions = RNGeofenceImporter.read(ByteBuffer.wrap(data));
+                    } else {
+                        throw new IllegalArgumentException("Either path or data is required");
+                    }
+                    if (source.hasKey("tags") && !source.isNull("tags")) {
+                        tagAll(regions, source.getArray("tags"));
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    promise.reject(MODULE_NAME, e.getMessage(), e);
+                    return;
+                }
+                mRegistry.putAll(regions);
+                Log.i(MODULE_NAME, "Imported " + regions.size() + " regions");
+
+                updateActiveGeofences(new OnSuccessListener<Void>() {
+                    @Override
+                    public void onSuccess(Void v) {
+                        promise.resolve(regions.size());
+                    }
+                }, failure(promise));
+            }
+        });
     }
 
-    private PendingIntent getGeofencePendingIntent() {
-        // Reuse the PendingIntent if we already have it.
-        if (mGeofencePendingIntent != null) {
-            return mGeofencePendingIntent;
+    private static void tagAll(List<GeofenceOptions> regions, ReadableArray readableTags) {
+        String[] tags = new String[readableTags.size()];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = readableTags.getString(i);
         }
+        tags = GeofenceOptions.validateTags(tags);
+        for (int i = 0; i < regions.size(); i++) {
+            regions.set(i, regions.get(i).withTags(tags));
+        }
+    }
 
-        Intent intent = new Intent(getReactApplicationContext(), RNGeofenceBroadcastReceiver.class);
-        mGeofencePendingIntent = PendingIntent.getBroadcast(getReactApplicationContext(),
-                0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
-        return mGeofencePendingIntent;
+    /**
+     * Replays a GPX or CSV location trace, given as a file or a base64 string, against the
+     * current regions and resolves with the events they would emit, see
+     * {@link RNGeofenceTraceReplay}. Nothing is registered or emitted.
+     */
+    @ReactMethod
+    public void replayTrace(final ReadableMap source, final Promise promise) {
+        runOnWorker(promise, new Runnable() {
+            @Override
+            public void run() {
+                final WritableArray events = Arguments.createArray();
+                RNGeofenceTraceReplay replay = new RNGeofenceTraceReplay(mRegistry.getAll(),
+                        new RNGeofenceTraceReplay.Listener() {
+                            @Override
+                            public void onTransition(RNGeofenceDataObject event) {
+                                events.pushMap(RNGeofenceHelper.convertDataObjectToRNMap(event));
+                            }
+                        });
+                if (source.hasKey("flapHoldTime")) {
+                    replay.setFlapSuppression(source.getInt("flapHoldTime"),
+                            source.hasKey("flapMargin") ? (float) source.getDouble("flapMargin") : 0);
+                }
+                try {
+                    if (source.hasKey("path")) {
+                        RNGeofenceTraceReader.read(new File(stripFileScheme(source.getString("path"))), replay);
+                    } else if (source.hasKey("data")) {
+                        byte[] data = Base64.decode(source.getString("data"), Base64.DEFAULT);
+                        RNGeofenceTraceReader.read(ByteBuffer.wrap(data), replay);
+                    } else {
+                        throw new IllegalArgumentException("Either path or data is required");
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    promise.reject(MODULE_NAME, e.getMessage(), e);
+                    return;
+                }
+                replay.finish();
+                promise.resolve(events);
+            }
+        });
     }
 
-    @SuppressLint("MissingPermission")
-    private void addGeofence(final Promise promise, final GeofencingRequest geofencingRequest, final Boolean multiple) {
+    private static String stripFileScheme(String path) {
+        return path.startsWith("file://") ? path.substring("file://".length()) : path;
+    }
 
-        List<String> ids = new ArrayList<>();
-        for (Geofence geofence : geofencingRequest.getGeofences()) {
-            ids.add(geofence.getRequestId());
-        }
-        mGeofencingClient.addGeofences(
-                geofencingRequest,
-                getGeofencePendingIntent()
-        )
-                .addOnSuccessListener(success(ids, promise, multiple))
-                .addOnFailureListener(failure(promise));
+    private void updateActiveGeofences(final OnSuccessListener<Void> onSuccess, final OnFailureListener onFailure) {
+        RNGeofenceRegistrar.update(getReactApplicationContext())
+                .addOnSuccessListener(RNGeofenceExecutor.get(), onSuccess)
+                .addOnFailureListener(RNGeofenceExecutor.get(), onFailure);
     }
 
     @ReactMethod
     public void remove(final String locationId, final Promise promise) {
-        List<String> ids = new ArrayList<>(Arrays.asList(locationId));
-        mGeofencingClient.removeGeofences(ids).addOnSuccessListener(success(ids, promise, false));
+        runOnWorker(promise, new Runnable() {
+            @Override
+            public void run() {
+                List<String> ids = new ArrayList<>(Arrays.asList(locationId));
+                mRegistry.removeAll(ids);
+                RNGeofenceRegistrar.applyRemovals(getReactApplicationContext())
+                        .addOnSuccessListener(RNGeofenceExecutor.get(), success(ids, promise, false))
+                        .addOnFailureListener(RNGeofenceExecutor.get(), failure(promise));
+            }
+        });
     }
 
     @ReactMethod
     public void removeAll(final ReadableArray locationIds, final Promise promise) {
-        List<String> ids = new ArrayList<>();
-        for (Object id : locationIds.toArrayList()) {
-            ids.add((String) id);
-        }
-        mGeofencingClient.removeGeofences(ids).addOnSuccessListener(success(ids, promise, true));
+        runOnWorker(promise, new Runnable() {
+            @Override
+            public void run() {
+                List<String> ids = new ArrayList<>();
+                for (Object id : locationIds.toArrayList()) {
+                    ids.add((String) id);
+                }
+                mRegistry.removeAll(ids);
+                RNGeofenceRegistrar.applyRemovals(getReactApplicationContext())
+                        .addOnSuccessListener(RNGeofenceExecutor.get(), success(ids, promise, true))
+                        .addOnFailureListener(RNGeofenceExecutor.get(), failure(promise));
+            }
+        });
     }
 
+    /**
+     * Removes every region with the tag, resolving the ids natively. Resolves with the number
+     * of regions removed.
+     */
     @ReactMethod
-    public void clear(final Promise promise) {
-        mGeofencingClient.removeGeofences(getGeofencePendingIntent())
-                .addOnSuccessListener(new OnSuccessListener<Void>() {
+    public void removeByTag(final String tag, final Promise promise) {
+        runOnWorker(promise, new Runnable() {
+            @Override
+            public void run() {
+                final List<String> ids = mRegistry.removeByTag(tag);
+                Log.i(MODULE_NAME, "Removing " + ids.size() + " regions tagged " + tag);
+                RNGeofenceRegistrar.applyRemovals(getReactApplicationContext())
+                        .addOnSuccessListener(RNGeofenceExecutor.get(), new OnSuccessListener<Void>() {
+                            @Override
+                            public void onSuccess(Void v) {
+                                promise.resolve(ids.size());
+                            }
+                        })
+                        .addOnFailureListener(RNGeofenceExecutor.get(), failure(promise));
+            }
+        });
+    }
+
+    /**
+     * Makes the given regions the only ones monitored, adding and removing only what differs
+     * from the current regions. Resolves with the ids that were added or changed, the ids that
+     * were removed and the number of unchanged regions.
+     */
+    @ReactMethod
+    public void sync(final ReadableArray readableArray, final Promise promise) {
+        runOnWorker(promise, new Runnable() {
+            @Override
+            public void run() {
+                List<GeofenceOptions> regions = new ArrayList<>(readableArray.size());
+                try {
+                    for (int i = 0; i < readableArray.size(); ++i) {
+                        regions.add(RNGeofenceHelper.convertRNMapToOptions(readableArray.getMap(i)));
+                    }
+                } catch (IllegalArgumentException e) {
+                    promise.reject(MODULE_NAME, e.getMessage(), e);
+                    return;
+                }
+
+                final RNGeofenceRegistry.SyncResult result = mRegistry.sync(regions);
+                Log.i(MODULE_NAME, "Sync changed " + result.changed.size() + ", removed " + result.removed.size()
+                        + ", kept " + result.unchanged + " regions");
+                updateActiveGeofences(new OnSuccessListener<Void>() {
                     @Override
                     public void onSuccess(Void v) {
-                        promise.resolve(Arguments.createMap());
+                        WritableArray changed = Arguments.createArray();
+                        for (GeofenceOptions options : result.changed) {
+                            changed.pushString(options.id);
+                        }
+                        WritableMap map = Arguments.createMap();
+                        map.putArray("added", changed);
+                        map.putArray("removed", convertListToWriteableArray(result.removed));
+                        map.putInt("unchanged", result.unchanged);
+                        promise.resolve(map);
                     }
-                }).addOnFailureListener(new OnFailureListener() {
+                }, failure(promise));
+            }
+        });
+    }
+
+    @ReactMethod
+    public void clear(final Promise promise) {
+        runOnWorker(promise, new Runnable() {
             @Override
-            public void onFailure(@NonNull Exception e) {
-                promise.reject(MODULE_NAME, "Could not remove all locations", e);
+            public void run() {
+                mRegistry.clear();
+                RNGeofencePolygonWatcher.getInstance(getReactApplicationContext()).update();
+                RNGeofenceDwellScheduler.getInstance(getReactApplicationContext()).clear();
+                RNGeofenceFlapScheduler.getInstance(getReactApplicationContext()).clear();
+                RNGeofenceRetryScheduler.getInstance(getReactApplicationContext()).cancel();
+                RNGeofenceRegistrar.removeAll(getReactApplicationContext())
+                        .addOnSuccessListener(RNGeofenceExecutor.get(), new OnSuccessListener<Void>() {
+                            @Override
+                            public void onSuccess(Void v) {
+                                promise.resolve(Arguments.createMap());
+                            }
+                        }).addOnFailureListener(RNGeofenceExecutor.get(), new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        promise.reject(MODULE_NAME, "Could not remove all locations", e);
+                    }
+                });
             }
         });
     }
 
+    /**
+     * Runs a call that reads regions or talks to Play Services on the worker thread, rejecting
+     * the promise if too many calls are already waiting for it.
+     */
+    private void runOnWorker(Promise promise, Runnable operation) {
+        try {
+            RNGeofenceExecutor.submit(operation);
+        } catch (RejectedExecutionException e) {
+            promise.reject(MODULE_NAME, e.getMessage(), e);
+        }
+    }
+
+    @ReactMethod
+    public void count(final Promise promise) {
+        promise.resolve(mRegistry.size());
+    }
+
+    @ReactMethod
+    public void countByTag(final String tag, final Promise promise) {
+        promise.resolve(mRegistry.countByTag(tag));
+    }
+
+    @ReactMethod
+    public void listByTag(final String tag, final Promise promise) {
+        promise.resolve(convertListToWriteableArray(mRegistry.getIdsByTag(tag)));
+    }
+
+    @ReactMethod
+    public void getAll(final Promise promise) {
+        WritableArray regions = Arguments.createArray();
+        for (GeofenceOptions options : mRegistry.getAll()) {
+            WritableMap region = RNGeofenceHelper.convertOptionsToRNMap(options);
+            region.putInt("handle", mRegistry.getHandle(options.id));
+            regions.pushMap(region);
+        }
+        promise.resolve(regions);
+    }
+
+    /**
+     * Resolves region handles of compact events to their ids, with null for the handles of
+     * removed regions.
+     */
+    @ReactMethod
+    public void resolveHandles(final ReadableArray handles, final Promise promise) {
+        WritableArray ids = Arguments.createArray();
+        for (int i = 0; i < handles.size(); i++) {
+            String id = mRegistry.resolveHandle(handles.getInt(i));
+            if (id != null) {
+                ids.pushString(id);
+            } else {
+                ids.pushNull();
+            }
+        }
+        promise.resolve(ids);
+    }
+
+    @ReactMethod
+    public void queryContaining(final double latitude, final double longitude, final Promise promise) {
+        List<String> ids = new ArrayList<>();
+        for (GeofenceOptions options : mRegistry.queryContaining(latitude, longitude)) {
+            ids.add(options.id);
+        }
+        promise.resolve(convertListToWriteableArray(ids));
+    }
+
+    @ReactMethod
+    public void nearest(final double latitude, final double longitude, final int k, final Promise promise) {
+        double[] distances = new double[Math.max(k, 0)];
+        List<GeofenceOptions> regions = mRegistry.nearest(latitude, longitude, k, distances);
+        WritableArray result = Arguments.createArray();
+        for (int i = 0; i < regions.size(); i++) {
+            WritableMap map = Arguments.createMap();
+            map.putString("id", regions.get(i).id);
+            map.putDouble("distance", distances[i]);
+            result.pushMap(map);
+        }
+        promise.resolve(result);
+    }
+
+    @ReactMethod
+    public void getMetrics(final Promise promise) {
+        promise.resolve(RNGeofenceHelper.convertMetricsToRNMap(RNGeofenceMetrics.getInstance()));
+    }
+
+    private void emitMetrics() {
+        if (!getReactApplicationContext().hasActiveCatalystInstance()) {
+            // Torn down, the next instance starts its own loop when it is initialized
+            return;
+        }
+        getReactApplicationContext().getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(RNGeofenceConstants.METRICS, RNGeofenceHelper.convertMetricsToRNMap(RNGeofenceMetrics.getInstance()));
+        if (mMetricsInterval > 0) {
+            mMetricsHandler.postDelayed(mMetricsRunnable, mMetricsInterval);
+        }
+    }
+
+    /**
+     * Records the delivery of live transitions to JS.
+     */
+    private static void recordEmitted(RNGeofenceDataObject event) {
+        RNGeofenceMetrics metrics = RNGeofenceMetrics.getInstance();
+        metrics.transitionsEmitted.addAndGet(event.getRequestIds().length);
+        metrics.transitionLatency.record(System.currentTimeMillis() - event.getTimestamp());
+    }
+
     private OnSuccessListener<Void> success(final List<String> ids, final Promise promise, final Boolean multiple) {
         return new OnSuccessListener<Void>() {
             @Override
@@ -260,94 +656,153 @@ public class RNGeofenceModule extends ReactContextBaseJavaModule implements Life
     @Override
     public void onHostResume() {
         Log.d(MODULE_NAME, "onHostResume()");
-        registerReceiver();
+        RNGeofenceHelper.setAppOnForeground(true);
+        subscribe();
+        replayJournal();
     }
 
     @Override
     public void onHostPause() {
         Log.d(MODULE_NAME, "onHostPause()");
-        unregisterReceiver();
+        RNGeofenceHelper.setAppOnForeground(false);
+        RNGeofenceDispatcher.getInstance().unsubscribe(mSubscriber);
     }
 
     @Override
     public void onHostDestroy() {
+        RNGeofenceHelper.setAppOnForeground(false);
     }
 
-    private void registerReceiver() {
-        mMessageReceiver.setRegistered(true);
-        LocalBroadcastManager.getInstance(this.getReactApplicationContext())
-                .registerReceiver(mMessageReceiver, new IntentFilter(RNGeofenceConstants.LOCAL_GEOFENCE_EVENT));
+    @Override
+    public void onCatalystInstanceDestroy() {
+        mMetricsHandler.removeCallbacks(mMetricsRunnable);
+        RNGeofenceDispatcher.getInstance().unsubscribe(mSubscriber);
+        journal(mBatcher.cancel());
+        RNGeofenceExpirySweeper.getInstance(getReactApplicationContext()).removeListener(mExpiryListener);
+    }
+
+    private boolean canEmitTransitions() {
+        return getReactApplicationContext().hasActiveCatalystInstance() && mTransitionListeners.get() > 0;
     }
 
-    private void unregisterReceiver() {
-        if (mMessageReceiver.isRegistered()) {
-            getReactApplicationContext().unregisterReceiver(mMessageReceiver);
-            mMessageReceiver.setRegistered(false);
+    private void journal(List<RNGeofenceDataObject> events) {
+        RNGeofenceJournal journal = RNGeofenceJournal.getInstance(getReactApplicationContext());
+        for (RNGeofenceDataObject event : events) {
+            journal.append(event);
         }
     }
 
-    private static class GeofenceOptions {
-        private final String id;
-        private final Double longitude;
-        private final Double latitude;
-        private final float radius;
-        private final int transitionTypes;
-        private final int loiteringDelay;
-        private final long expirationDuration;
-
-        private GeofenceOptions(
-                String id,
-                Double longitude,
-                Double latitude,
-                float radius,
-                int transitionTypes,
-                int loiteringDelay,
-                long expirationDuration) {
-            this.id = id;
-            this.longitude = longitude;
-            this.latitude = latitude;
-            this.radius = radius;
-            this.transitionTypes = transitionTypes;
-            this.loiteringDelay = loiteringDelay;
-            this.expirationDuration = expirationDuration;
+    /**
+     * Emits the transitions journaled while the app was in the background, in the order they
+     * were received and in batches of {@link RNGeofenceConstants#REPLAY_BATCH_SIZE}.
+     */
+    private void replayJournal() {
+        if (!canEmitTransitions()) {
+            // Kept until notify() listens, JS would drop the events otherwise
+            return;
+        }
+        List<RNGeofenceDataObject> events = RNGeofenceJournal.getInstance(getReactApplicationContext()).drain();
+        if (events.isEmpty()) {
+            return;
         }
 
-        private static GeofenceOptions fromReactMap(ReadableMap readableMap) {
-            String id = readableMap.getString("id");
-            Double longitude = readableMap.getDouble("longitude");
-            Double latitude = readableMap.getDouble("latitude");
-            float radius = readableMap.hasKey("radius") ?
-                    (float) readableMap.getDouble("radius") :
-                    RNGeofenceConstants.DEFAULT_RADIUS;
-            int transitionTypes = Geofence.GEOFENCE_TRANSITION_ENTER
-                    | Geofence.GEOFENCE_TRANSITION_EXIT;
-            int loiteringDelay = 10;
-            long expirationDuration = readableMap.hasKey("expirationDuration") ?
-                    Long.valueOf(readableMap.getInt("expirationDuration")) :
-                    Geofence.NEVER_EXPIRE;
-
-            return new GeofenceOptions(id, longitude, latitude, radius, transitionTypes, loiteringDelay, expirationDuration);
+        Log.i(MODULE_NAME, "Replaying " + events.size() + " background events");
+        DeviceEventManagerModule.RCTDeviceEventEmitter emitter = getReactApplicationContext()
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class);
+        for (int start = 0; start < events.size(); start += RNGeofenceConstants.REPLAY_BATCH_SIZE) {
+            int end = Math.min(start + RNGeofenceConstants.REPLAY_BATCH_SIZE, events.size());
+            WritableArray batch = Arguments.createArray();
+            for (RNGeofenceDataObject event : events.subList(start, end)) {
+                batch.pushMap(convertEvent(event));
+                RNGeofenceMetrics.getInstance().transitionsReplayed.addAndGet(event.getRequestIds().length);
+            }
+            emitter.emit(RNGeofenceConstants.TRANSITIONS, batch);
         }
     }
 
-    private class ConnectivityBroadcastReceiver extends BroadcastReceiver {
+    private WritableMap convertEvent(RNGeofenceDataObject event) {
+        return mCompactEvents ?
+                RNGeofenceHelper.convertDataObjectToCompactRNMap(event, mRegistry) :
+                RNGeofenceHelper.convertDataObjectToRNMap(event);
+    }
 
-        private boolean isRegistered = false;
+    /**
+     * Subscribes the module to the transitions of the process, replacing the subscription of
+     * a previous module instance. Subscribing again has no effect.
+     */
+    private void subscribe() {
+        RNGeofenceDispatcher.getInstance().subscribe(mSubscriber);
+    }
 
-        public boolean isRegistered() {
-            return isRegistered;
-        }
+    /**
+     * Emits the ids of the regions that expired together as one event. Expiries while JS is
+     * not running are not kept, the regions are gone from {@link #getAll} either way.
+     */
+    private class ExpiryListener implements RNGeofenceExpirySweeper.Listener {
 
-        public void setRegistered(boolean registered) {
-            isRegistered = registered;
+        @Override
+        public void onExpired(List<String> ids) {
+            if (getReactApplicationContext().hasActiveCatalystInstance()) {
+                getReactApplicationContext().getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                        .emit(RNGeofenceConstants.EXPIRED, convertListToWriteableArray(ids));
+            }
         }
+    }
+
+    /**
+     * Receives the transitions on the thread that dispatched them, which is the main thread
+     * for Play Services transitions and a scheduler thread for dwells and held transitions.
+     */
+    private class TransitionSubscriber implements RNGeofenceDispatcher.Subscriber {
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-            RNGeofenceDataObject dataObject = (RNGeofenceDataObject) intent.getSerializableExtra(RNGeofenceConstants.LOCAL_GEOFENCE_DATA);
+        public void onTransition(RNGeofenceDataObject dataObject) {
             Log.d(RNGeofenceConstants.MODULE_NAME, "Got data: " + dataObject);
+            if (!canEmitTransitions()) {
+                // Torn down after the event was dispatched or nobody listens yet, keeps it for
+                // the next notify()
+                RNGeofenceJournal.getInstance(getReactApplicationContext()).append(dataObject);
+                return;
+            }
+            if (mBatcher.isEnabled()) {
+                mBatcher.add(dataObject);
+                return;
+            }
             getReactApplicationContext().getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                    .emit(RNGeofenceConstants.TRANSITION, RNGeofenceHelper.convertDataObjectToRNMap(dataObject));
+                    .emit(RNGeofenceConstants.TRANSITION, convertEvent(dataObject));
+            recordEmitted(dataObject);
+        }
+    }
+
+    private class BatchListener implements RNGeofenceEventBatcher.Listener {
+
+        @Override
+        public void onBatch(List<RNGeofenceDataObject> events, RNGeofenceEventBatcher.Stats stats) {
+            if (!canEmitTransitions()) {
+                // Torn down while the batch was collected, keeps it for the next notify()
+                journal(events);
+                return;
+            }
+            Log.d(MODULE_NAME, "Emitting batch of " + stats.delivered + " events");
+            WritableArray batch = Arguments.createArray();
+            for (RNGeofenceDataObject event : events) {
+                batch.pushMap(convertEvent(event));
+            }
+
+            WritableMap statsMap = Arguments.createMap();
+            statsMap.putInt("received", stats.received);
+            statsMap.putInt("delivered", stats.delivered);
+            statsMap.putInt("ids", stats.requestIds);
+            statsMap.putDouble("latency", stats.latency);
+            statsMap.putString("reason", stats.reason);
+
+            DeviceEventManagerModule.RCTDeviceEventEmitter emitter = getReactApplicationContext()
+                    .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class);
+            emitter.emit(RNGeofenceConstants.TRANSITIONS, batch);
+            emitter.emit(RNGeofenceConstants.BATCH_STATS, statsMap);
+            for (RNGeofenceDataObject event : events) {
+                recordEmitted(event);
+            }
         }
     }
 
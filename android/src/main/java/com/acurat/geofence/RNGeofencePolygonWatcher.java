@@ -0,0 +1,101 @@
+package com.acurat.geofence;
+
+import android.annotation.SuppressLint;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.Task;
+
+import static com.acurat.geofence.RNGeofenceConstants.MODULE_NAME;
+
+/**
+ * Watches the location of the device while the enter of a polygon region is suppressed, as
+ * Play Services reports the enter of its enclosing circle only once and the device usually
+ * reaches the polygon later. Location updates are requested with a PendingIntent to
+ * {@link RNGeofenceBroadcastReceiver}, so they also arrive while the app is not running, and
+ * are removed once no enter is suppressed anymore, because the device entered the polygon or
+ * left the circle.
+ */
+final class RNGeofencePolygonWatcher {
+
+    static final String ACTION_LOCATION = "com.acurat.geofence.ACTION_POLYGON_LOCATION";
+
+    private static final long INTERVAL = 30 * 1000;
+    private static final long FASTEST_INTERVAL = 10 * 1000;
+    private static final float SMALLEST_DISPLACEMENT = 10;
+
+    private static RNGeofencePolygonWatcher sInstance;
+
+    private final Context mContext;
+    private PendingIntent mPendingIntent;
+    // Null until known, the updates requested by a previous process outlive it
+    private Boolean mWatching;
+
+    private RNGeofencePolygonWatcher(Context context) {
+        mContext = context;
+    }
+
+    static synchronized RNGeofencePolygonWatcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RNGeofencePolygonWatcher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Requests or removes the location updates after the suppressed enters of the registry
+     * changed. Nothing is requested from Play Services when the state did not change.
+     */
+    @SuppressLint("MissingPermission")
+    synchronized void update() {
+        boolean watch = RNGeofenceRegistrar.getRegistry(mContext).hasSuppressedEnters();
+        if (mWatching != null && mWatching == watch) {
+            return;
+        }
+        mWatching = watch;
+        Task<Void> task;
+        try {
+            if (watch) {
+                Log.i(MODULE_NAME, "Watching the location until suppressed polygon enters are resolved");
+                task = LocationServices.getFusedLocationProviderClient(mContext).requestLocationUpdates(
+                        LocationRequest.create()
+                                .setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY)
+                                .setInterval(INTERVAL)
+                                .setFastestInterval(FASTEST_INTERVAL)
+                                .setSmallestDisplacement(SMALLEST_DISPLACEMENT),
+                        getPendingIntent());
+            } else {
+                Log.i(MODULE_NAME, "Stopped watching the location for polygon enters");
+                task = LocationServices.getFusedLocationProviderClient(mContext).removeLocationUpdates(getPendingIntent());
+            }
+        } catch (SecurityException e) {
+            Log.e(MODULE_NAME, "Could not watch the location: " + e.getLocalizedMessage());
+            mWatching = null;
+            return;
+        }
+        task.addOnFailureListener(RNGeofenceExecutor.get(), new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                Log.e(MODULE_NAME, "Could not update the location watch: " + e.getLocalizedMessage());
+                synchronized (RNGeofencePolygonWatcher.this) {
+                    // The next update tries again
+                    mWatching = null;
+                }
+            }
+        });
+    }
+
+    private PendingIntent getPendingIntent() {
+        if (mPendingIntent == null) {
+            Intent intent = new Intent(mContext, RNGeofenceBroadcastReceiver.class).setAction(ACTION_LOCATION);
+            mPendingIntent = PendingIntent.getBroadcast(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        }
+        return mPendingIntent;
+    }
+}
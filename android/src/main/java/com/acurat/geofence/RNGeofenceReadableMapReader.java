@@ -0,0 +1,55 @@
+package com.acurat.geofence;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Reads a region straight from the JS map, without copying it.
+ */
+final class RNGeofenceReadableMapReader implements RNGeofenceRegionReader {
+
+    private final ReadableMap mMap;
+
+    RNGeofenceReadableMapReader(ReadableMap map) {
+        mMap = map;
+    }
+
+    @Override
+    public boolean hasKey(String key) {
+        return mMap.hasKey(key) && !mMap.isNull(key);
+    }
+
+    @Override
+    public String getString(String key) {
+        return mMap.getString(key);
+    }
+
+    @Override
+    public double getDouble(String key) {
+        return mMap.getDouble(key);
+    }
+
+    @Override
+    public int getInt(String key) {
+        return mMap.getInt(key);
+    }
+
+    @Override
+    public boolean getBoolean(String key) {
+        return mMap.getBoolean(key);
+    }
+
+    @Override
+    public int getArraySize(String key) {
+        return mMap.getArray(key).size();
+    }
+
+    @Override
+    public RNGeofenceRegionReader getArrayMap(String key, int index) {
+        return new RNGeofenceReadableMapReader(mMap.getArray(key).getMap(index));
+    }
+
+    @Override
+    public String getArrayString(String key, int index) {
+        return mMap.getArray(key).getString(index);
+    }
+}
@@ -0,0 +1,408 @@
+package com.acurat.geofence;
+
+import android.annotation.SuppressLint;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.GeofencingRequest;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.acurat.geofence.RNGeofenceConstants.MODULE_NAME;
+
+/**
+ * Applies the selections of {@link RNGeofenceRegistry} to Play Services. Used by the module
+ * and by the broadcast receiver when the refresh geofence is exited. Geofences are built and
+ * task results are handled on the {@link RNGeofenceExecutor} thread.
+ */
+final class RNGeofenceRegistrar {
+
+    private static final String STORE_FILE = "rngeofence.store";
+    private static final String PREFERENCES = "RNGeofenceRegistry";
+    private static final String KEY_CLUSTER_RADIUS = "clusterRadius";
+
+    private static PendingIntent sGeofencePendingIntent;
+    // Completes once the last selection enqueued was applied, see enqueue
+    private static Task<Void> sLastStep = Tasks.forResult(null);
+
+    private RNGeofenceRegistrar() {
+    }
+
+    /**
+     * Returns the registry, loading the persisted regions the first time it is used in the process.
+     */
+    static RNGeofenceRegistry getRegistry(Context context) {
+        RNGeofenceRegistry registry = RNGeofenceRegistry.getInstance();
+        if (!registry.isAttached()) {
+            registry.setClusterRadius(context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE)
+                    .getFloat(KEY_CLUSTER_RADIUS, 0));
+            registry.attach(new RNGeofenceStore(new File(context.getFilesDir(), STORE_FILE)));
+            // Regions may have expired while the process was not running
+            RNGeofenceExpirySweeper.getInstance(context).reschedule();
+        }
+        return registry;
+    }
+
+    /**
+     * Sets the cluster radius of the registry and keeps it for selections made while the app
+     * is not running. Returns whether it changed.
+     */
+    static boolean setClusterRadius(Context context, float clusterRadius) {
+        context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit()
+                .putFloat(KEY_CLUSTER_RADIUS, clusterRadius)
+                .apply();
+        return getRegistry(context).setClusterRadius(clusterRadius);
+    }
+
+    static synchronized PendingIntent getGeofencePendingIntent(Context context) {
+        // Reuse the PendingIntent if we already have it.
+        if (sGeofencePendingIntent != null) {
+            return sGeofencePendingIntent;
+        }
+
+        Intent intent = new Intent(context.getApplicationContext(), RNGeofenceBroadcastReceiver.class);
+        sGeofencePendingIntent = PendingIntent.getBroadcast(context.getApplicationContext(),
+                0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        return sGeofencePendingIntent;
+    }
+
+    static Geofence createGeofence(final GeofenceOptions options) {
+        int transitionTypes = options.transitionTypes;
+        if (!RNGeofenceConstants.REFRESH_GEOFENCE_ID.equals(options.id)) {
+            // Enter and exit drive the dwell timers and the polygon checks even when they are
+            // not delivered
+            transitionTypes |= Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT;
+        }
+        return new Geofence.Builder()
+                .setRequestId(options.id)
+                .setCircularRegion(options.latitude,
+                        options.longitude,
+                        options.radius)
+                .setTransitionTypes(transitionTypes)
+                .setLoiteringDelay(options.loiteringDelay)
+                .setExpirationDuration(options.remainingDuration(System.currentTimeMillis()))
+                .build();
+    }
+
+    static GeofencingRequest createGeofenceRequest(final List<Geofence> geofences) {
+        return new GeofencingRequest.Builder()
+                .setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_ENTER)
+                .addGeofences(geofences)
+                .build();
+    }
+
+    /**
+     * Selects the regions to register for the current location of the device and applies
+     * the selection.
+     */
+    static Task<Void> update(final Context context) {
+        return locate(context).continueWithTask(RNGeofenceExecutor.get(), new Continuation<double[], Task<Void>>() {
+            @Override
+            public Task<Void> then(@NonNull Task<double[]> task) {
+                return updateAt(context, task.getResult()[0], task.getResult()[1]);
+            }
+        });
+    }
+
+    /**
+     * Selects the regions to register for the given location, NaN if it is unknown, and
+     * applies the selection.
+     */
+    static Task<Void> updateAt(final Context context, final double latitude, final double longitude) {
+        return enqueue(new Step<Void>() {
+            @Override
+            public Task<Void> run() {
+                return apply(context, select(context, latitude, longitude));
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #update(Context)} but registers the added geofences in chunks and resolves
+     * with the failure of every id whose chunk was rejected instead of failing as a whole.
+     */
+    static Task<Map<String, Exception>> updateInChunks(final Context context) {
+        return locate(context).continueWithTask(RNGeofenceExecutor.get(), new Continuation<double[], Task<Map<String, Exception>>>() {
+            @Override
+            public Task<Map<String, Exception>> then(@NonNull Task<double[]> task) {
+                final double[] location = task.getResult();
+                return enqueue(new Step<Map<String, Exception>>() {
+                    @Override
+                    public Task<Map<String, Exception>> run() {
+                        return applyInChunks(context, select(context, location[0], location[1]));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Removes the geofences of the regions removed from the registry, without selecting again.
+     */
+    static Task<Void> applyRemovals(final Context context) {
+        return enqueue(new Step<Void>() {
+            @Override
+            public Task<Void> run() {
+                return apply(context, getRegistry(context).takeRemovals());
+            }
+        });
+    }
+
+    /**
+     * Removes every geofence of the app, after the registry was cleared.
+     */
+    @SuppressLint("MissingPermission")
+    static Task<Void> removeAll(final Context context) {
+        return enqueue(new Step<Void>() {
+            @Override
+            public Task<Void> run() {
+                return RNGeofenceMetrics.getInstance().timeRemove(LocationServices.getGeofencingClient(context)
+                        .removeGeofences(getGeofencePendingIntent(context)));
+            }
+        });
+    }
+
+    private interface Step<T> {
+        Task<T> run();
+    }
+
+    /**
+     * Runs a step once the previous one completed, whatever its outcome. Selections are made
+     * when their step runs, so they reach Play Services in the order they were made and the
+     * calls of two of them never overlap, whichever thread asked for them.
+     */
+    private static synchronized <T> Task<T> enqueue(final Step<T> step) {
+        Task<T> task = sLastStep.continueWithTask(RNGeofenceExecutor.get(), new Continuation<Void, Task<T>>() {
+            @Override
+            public Task<T> then(@NonNull Task<Void> previous) {
+                return step.run();
+            }
+        });
+        sLastStep = task.continueWith(RNGeofenceExecutor.get(), new Continuation<T, Void>() {
+            @Override
+            public Void then(@NonNull Task<T> previous) {
+                return null;
+            }
+        });
+        return task;
+    }
+
+    /**
+     * Looks up the location to select the regions for. It is only looked up when there are
+     * more regions than the active limit, otherwise or when it is unavailable it is NaN.
+     */
+    @SuppressLint("MissingPermission")
+    private static Task<double[]> locate(final Context context) {
+        final RNGeofenceRegistry registry = getRegistry(context);
+        // Selections follow every change of the regions, including added expiries
+        RNGeofenceExpirySweeper.getInstance(context).reschedule();
+        if (!registry.needsLocation()) {
+            return Tasks.forResult(new double[]{Double.NaN, Double.NaN});
+        }
+
+        return LocationServices.getFusedLocationProviderClient(context).getLastLocation()
+                .continueWith(RNGeofenceExecutor.get(), new Continuation<Location, double[]>() {
+                    @Override
+                    public double[] then(@NonNull Task<Location> task) {
+                        Location location = task.isSuccessful() ? task.getResult() : null;
+                        return location != null ?
+                                new double[]{location.getLatitude(), location.getLongitude()} :
+                                new double[]{Double.NaN, Double.NaN};
+                    }
+                });
+    }
+
+    /**
+     * Selects the regions to register, falling back to the location of the previous selection
+     * when the location is unknown. Throws an {@code IllegalStateException} when a location is
+     * needed and there is none.
+     */
+    private static RNGeofenceRegistry.Swap select(Context context, double latitude, double longitude) {
+        RNGeofenceRegistry registry = getRegistry(context);
+        if (Double.isNaN(latitude) && registry.needsLocation()) {
+            if (!registry.hasLastLocation()) {
+                IllegalStateException e = new IllegalStateException("Current location is unavailable");
+                RNGeofenceRetryScheduler.getInstance(context).onFailure(e);
+                throw e;
+            }
+            latitude = registry.getLastLatitude();
+            longitude = registry.getLastLongitude();
+        }
+        return registry.select(latitude, longitude);
+    }
+
+    /**
+     * Marks the registry as invalid after a failed registration, so that the next selection
+     * registers everything again, and schedules that selection if the failure is temporary.
+     */
+    static void invalidate(Context context, Exception cause) {
+        getRegistry(context).invalidate();
+        RNGeofenceRetryScheduler.getInstance(context).onFailure(cause);
+    }
+
+    /**
+     * Removes and adds the geofences of a selection. A failure marks the registry as
+     * invalid so the next selection re-registers everything.
+     */
+    @SuppressLint("MissingPermission")
+    private static Task<Void> apply(final Context context, final RNGeofenceRegistry.Swap swap) {
+        if (swap.isEmpty()) {
+            return Tasks.forResult(null);
+        }
+        final GeofencingClient client = LocationServices.getGeofencingClient(context);
+        final PendingIntent pendingIntent = getGeofencePendingIntent(context);
+
+        Task<Void> task = removeSwapped(client, pendingIntent, swap).continueWithTask(RNGeofenceExecutor.get(), new Continuation<Void, Task<Void>>() {
+            @Override
+            public Task<Void> then(@NonNull Task<Void> previous) throws Exception {
+                if (!previous.isSuccessful()) {
+                    throw previous.getException();
+                }
+                if (swap.added.isEmpty()) {
+                    return Tasks.forResult(null);
+                }
+                List<Geofence> geofences = new ArrayList<>(swap.added.size());
+                for (GeofenceOptions options : swap.added) {
+                    geofences.add(createGeofence(options));
+                }
+                return RNGeofenceMetrics.getInstance().timeAdd(
+                        client.addGeofences(createGeofenceRequest(geofences), pendingIntent));
+            }
+        });
+        task.addOnFailureListener(RNGeofenceExecutor.get(), new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                Log.e(MODULE_NAME, "Could not update active geofences: " + e.getLocalizedMessage());
+                invalidate(context, e);
+            }
+        });
+        Log.i(MODULE_NAME, "Updating active geofences, adding " + swap.added.size()
+                + ", removing " + swap.removed.size());
+        return task;
+    }
+
+    /**
+     * Applies a selection with the added geofences split into chunks of
+     * {@link RNGeofenceConstants#REGISTRATION_CHUNK_SIZE}, keeping at most
+     * {@link RNGeofenceConstants#MAX_PENDING_CHUNKS} calls to Play Services pending.
+     */
+    private static Task<Map<String, Exception>> applyInChunks(final Context context, final RNGeofenceRegistry.Swap swap) {
+        if (swap.isEmpty()) {
+            return Tasks.forResult(Collections.<String, Exception>emptyMap());
+        }
+        final GeofencingClient client = LocationServices.getGeofencingClient(context);
+        final PendingIntent pendingIntent = getGeofencePendingIntent(context);
+
+        return removeSwapped(client, pendingIntent, swap).continueWithTask(RNGeofenceExecutor.get(), new Continuation<Void, Task<Map<String, Exception>>>() {
+            @Override
+            public Task<Map<String, Exception>> then(@NonNull Task<Void> previous) {
+                if (!previous.isSuccessful()) {
+                    // Nothing is added on top of geofences that could not be removed
+                    invalidate(context, previous.getException());
+                    Map<String, Exception> failures = new HashMap<>();
+                    for (GeofenceOptions options : swap.added) {
+                        failures.put(options.id, previous.getException());
+                    }
+                    return Tasks.forResult(failures);
+                }
+                return new ChunkPipeline(context, client, pendingIntent, swap.added).start();
+            }
+        });
+    }
+
+    private static Task<Void> removeSwapped(GeofencingClient client, PendingIntent pendingIntent,
+                                            RNGeofenceRegistry.Swap swap) {
+        if (swap.reset) {
+            return RNGeofenceMetrics.getInstance().timeRemove(client.removeGeofences(pendingIntent));
+        } else if (!swap.removed.isEmpty()) {
+            return RNGeofenceMetrics.getInstance().timeRemove(client.removeGeofences(swap.removed));
+        }
+        return Tasks.forResult(null);
+    }
+
+    private static final class ChunkPipeline {
+
+        private final Context mContext;
+        private final GeofencingClient mClient;
+        private final PendingIntent mPendingIntent;
+        private final List<GeofenceOptions> mRegions;
+        private final Map<String, Exception> mFailures = new HashMap<>();
+        private final TaskCompletionSource<Map<String, Exception>> mResult = new TaskCompletionSource<>();
+        private int mNext;
+        private int mPending;
+
+        private ChunkPipeline(Context context, GeofencingClient client, PendingIntent pendingIntent,
+                              List<GeofenceOptions> regions) {
+            mContext = context;
+            mClient = client;
+            mPendingIntent = pendingIntent;
+            mRegions = regions;
+        }
+
+        synchronized Task<Map<String, Exception>> start() {
+            if (mRegions.isEmpty()) {
+                mResult.setResult(mFailures);
+            }
+            while (mPending < RNGeofenceConstants.MAX_PENDING_CHUNKS && mNext < mRegions.size()) {
+                issueNext();
+            }
+            return mResult.getTask();
+        }
+
+        @SuppressLint("MissingPermission")
+        private void issueNext() {
+            int end = Math.min(mNext + RNGeofenceConstants.REGISTRATION_CHUNK_SIZE, mRegions.size());
+            final List<GeofenceOptions> chunk = mRegions.subList(mNext, end);
+            mNext = end;
+            mPending++;
+
+            List<Geofence> geofences = new ArrayList<>(chunk.size());
+            for (GeofenceOptions options : chunk) {
+                geofences.add(createGeofence(options));
+            }
+            RNGeofenceMetrics.getInstance().timeAdd(mClient.addGeofences(createGeofenceRequest(geofences), mPendingIntent))
+                    .addOnCompleteListener(RNGeofenceExecutor.get(), new OnCompleteListener<Void>() {
+                        @Override
+                        public void onComplete(@NonNull Task<Void> task) {
+                            onChunkComplete(chunk, task);
+                        }
+                    });
+        }
+
+        private synchronized void onChunkComplete(List<GeofenceOptions> chunk, Task<Void> task) {
+            mPending--;
+            if (!task.isSuccessful()) {
+                Log.e(MODULE_NAME, "Could not add " + chunk.size() + " geofences: " + task.getException());
+                for (GeofenceOptions options : chunk) {
+                    mFailures.put(options.id, task.getException());
+                    if (RNGeofenceConstants.REFRESH_GEOFENCE_ID.equals(options.id)) {
+                        invalidate(mContext, task.getException());
+                    }
+                }
+            }
+            if (mNext < mRegions.size()) {
+                issueNext();
+            } else if (mPending == 0) {
+                mResult.setResult(mFailures);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.acurat.geofence;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.common.api.ApiException;
+import com.google.android.gms.location.GeofenceStatusCodes;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+import java.util.Random;
+
+import static com.acurat.geofence.RNGeofenceConstants.MODULE_NAME;
+
+/**
+ * Registers the regions again after Play Services rejected a registration because location
+ * was unavailable or too many calls were pending. The registry always holds the latest state
+ * of every region and a failed registration invalidates it, so a retry applies the latest
+ * add or remove of each region no matter how many calls failed meanwhile.
+ * <p>
+ * At most one retry is scheduled. Consecutive failures back off exponentially, and a retry is
+ * brought forward when a location provider is turned on again. Scheduled retries are lost if
+ * the process dies, the next module call or reboot registers the regions again.
+ */
+final class RNGeofenceRetryScheduler {
+
+    private static final long INITIAL_DELAY = 5000;
+    private static final long MAX_DELAY = 30 * 60 * 1000;
+    // Time for a provider that was just turned on to get a location
+    private static final long PROVIDER_DELAY = 2000;
+
+    private static RNGeofenceRetryScheduler sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final RNGeofenceBackoff mBackoff = new RNGeofenceBackoff(INITIAL_DELAY, MAX_DELAY, new Random());
+    private final Runnable mRetryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            retry();
+        }
+    };
+    private final BroadcastReceiver mProvidersReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onProvidersChanged();
+        }
+    };
+    private boolean mScheduled;
+    private boolean mListening;
+
+    private RNGeofenceRetryScheduler(Context context) {
+        mContext = context;
+    }
+
+    static synchronized RNGeofenceRetryScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RNGeofenceRetryScheduler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns whether the failure is expected to go away on its own.
+     */
+    static boolean isRetryable(Exception e) {
+        if (e instanceof ApiException) {
+            int statusCode = ((ApiException) e).getStatusCode();
+            return statusCode == GeofenceStatusCodes.GEOFENCE_NOT_AVAILABLE
+                    || statusCode == GeofenceStatusCodes.GEOFENCE_TOO_MANY_PENDING_INTENTS;
+        }
+        // No location to select the regions for
+        return e instanceof IllegalStateException;
+    }
+
+    /**
+     * Schedules a retry for a failed registration, unless one is scheduled already.
+     */
+    synchronized void onFailure(Exception e) {
+        if (!isRetryable(e) || mScheduled) {
+            return;
+        }
+        long delay = mBackoff.nextDelay();
+        Log.i(MODULE_NAME, "Retrying registration in " + delay + " ms, attempt " + mBackoff.getAttempts());
+        schedule(delay);
+        if (!mListening) {
+            mContext.registerReceiver(mProvidersReceiver, new IntentFilter(LocationManager.PROVIDERS_CHANGED_ACTION));
+            mListening = true;
+        }
+    }
+
+    synchronized void cancel() {
+        mHandler.removeCallbacks(mRetryRunnable);
+        mScheduled = false;
+        mBackoff.reset();
+        stopListening();
+    }
+
+    private void schedule(long delay) {
+        mScheduled = true;
+        mHandler.removeCallbacks(mRetryRunnable);
+        mHandler.postDelayed(mRetryRunnable, delay);
+    }
+
+    private synchronized void onProvidersChanged() {
+        LocationManager locationManager = (LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
+        if (!mScheduled || locationManager == null
+                || (!locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER)
+                && !locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER))) {
+            return;
+        }
+        Log.i(MODULE_NAME, "Location is available again, retrying registration");
+        mBackoff.reset();
+        schedule(PROVIDER_DELAY);
+    }
+
+    private void retry() {
+        synchronized (this) {
+            mScheduled = false;
+        }
+        RNGeofenceMetrics.getInstance().registrationRetries.incrementAndGet();
+        // A failure schedules the next retry through onFailure, see RNGeofenceRegistrar
+        RNGeofenceRegistrar.update(mContext)
+                .addOnCompleteListener(RNGeofenceExecutor.get(), new OnCompleteListener<Void>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Void> task) {
+                        if (task.isSuccessful()) {
+                            onRetrySucceeded();
+                        }
+                    }
+                });
+    }
+
+    private synchronized void onRetrySucceeded() {
+        if (mScheduled) {
+            // Another registration failed meanwhile
+            return;
+        }
+        Log.i(MODULE_NAME, "Registration succeeded after " + mBackoff.getAttempts() + " attempts");
+        mBackoff.reset();
+        stopListening();
+    }
+
+    private void stopListening() {
+        if (mListening) {
+            mContext.unregisterReceiver(mProvidersReceiver);
+            mListening = false;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.acurat.geofence;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.acurat.geofence.RNGeofenceConstants.MODULE_NAME;
+
+/**
+ * Append-only file with every region of the registry. Each change is appended as a record
+ * and replayed on load, the file is rewritten once most of its records are outdated.
+ */
+final class RNGeofenceStore implements RNGeofenceRegionStore {
+
+    private static final int MAGIC = 0x52474653;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_COMPACT_RECORDS = 1024;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_LOCATION = 3;
+    // Next handle to assign, so that handles of removed regions are not reused after a restart
+    private static final byte OP_HANDLES = 4;
+    // Every polygon region whose enter is suppressed, replacing the previous record
+    private static final byte OP_SUPPRESSED = 5;
+
+    private final File mFile;
+    private int mRecords;
+
+    RNGeofenceStore(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Replays the file into {@code regions}, keyed by id in insertion order, the handles into
+     * {@code ids} and the suppressed enters into {@code suppressedEnters}. Returns the last
+     * location used for a selection, or null if there is none.
+     */
+    @Override
+    public synchronized double[] load(Map<String, GeofenceOptions> regions, RNGeofenceIdDictionary ids,
+                                      Set<String> suppressedEnters) {
+        double[] location = null;
+        mRecords = 0;
+        if (!mFile.exists()) {
+            return null;
+        }
+
+        boolean needsRewrite = false;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile), BUFFER_SIZE));
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != VERSION) {
+                Log.w(MODULE_NAME, "Discarding geofence store with unknown format");
+                closeQuietly(in);
+                in = null;
+                clear();
+                return null;
+            }
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (op == OP_PUT) {
+                    GeofenceOptions options = readOptions(in, mFile.length());
+                    ids.restore(options.id, in.readInt());
+                    regions.remove(options.id);
+                    regions.put(options.id, options);
+                    suppressedEnters.remove(options.id);
+                } else if (op == OP_REMOVE) {
+                    String id = in.readUTF();
+                    regions.remove(id);
+                    ids.remove(id);
+                    suppressedEnters.remove(id);
+                } else if (op == OP_LOCATION) {
+                    location = new double[]{in.readDouble(), in.readDouble()};
+                } else if (op == OP_HANDLES) {
+                    ids.setNextHandle(in.readInt());
+                } else if (op == OP_SUPPRESSED) {
+                    suppressedEnters.clear();
+                    suppressedEnters.addAll(readIds(in, mFile.length()));
+                } else {
+                    throw new IOException("Unknown record " + op);
+                }
+                mRecords++;
+            }
+        } catch (EOFException e) {
+            // The last record was only partially written
+            needsRewrite = true;
+        } catch (IOException | RuntimeException e) {
+            // A corrupt record, e.g. an invalid polygon, is treated like a partially written one
+            Log.e(MODULE_NAME, "Could not read geofence store", e);
+            needsRewrite = true;
+        } finally {
+            closeQuietly(in);
+        }
+
+        if (needsRewrite) {
+            rewrite(regions.values(), location, ids, suppressedEnters);
+        }
+        return location;
+    }
+
+    @Override
+    public synchronized void putAll(Collection<GeofenceOptions> regions, RNGeofenceIdDictionary ids) {
+        DataOutputStream out = null;
+        try {
+            boolean created = !mFile.exists() || mFile.length() == 0;
+            out = openForAppend();
+            if (created) {
+                // Handles assigned before the store was cleared stay taken
+                out.writeByte(OP_HANDLES);
+                out.writeInt(ids.getNextHandle());
+                mRecords++;
+            }
+            for (GeofenceOptions options : regions) {
+                out.writeByte(OP_PUT);
+                writeOptions(out, options);
+                out.writeInt(ids.getHandle(options.id));
+            }
+            mRecords += regions.size();
+        } catch (IOException e) {
+            Log.e(MODULE_NAME, "Could not write geofence store", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    @Override
+    public synchronized void removeAll(Collection<String> ids) {
+        DataOutputStream out = null;
+        try {
+            out = openForAppend();
+            for (String id : ids) {
+                out.writeByte(OP_REMOVE);
+                out.writeUTF(id);
+            }
+            mRecords += ids.size();
+        } catch (IOException e) {
+            Log.e(MODULE_NAME, "Could not write geofence store", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    @Override
+    public synchronized void putLocation(double latitude, double longitude) {
+        DataOutputStream out = null;
+        try {
+            out = openForAppend();
+            out.writeByte(OP_LOCATION);
+            out.writeDouble(latitude);
+            out.writeDouble(longitude);
+            mRecords++;
+        } catch (IOException e) {
+            Log.e(MODULE_NAME, "Could not write geofence store", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    @Override
+    public synchronized void putSuppressedEnters(Collection<String> ids) {
+        DataOutputStream out = null;
+        try {
+            out = openForAppend();
+            out.writeByte(OP_SUPPRESSED);
+            writeIds(out, ids);
+            mRecords++;
+        } catch (IOException e) {
+            Log.e(MODULE_NAME, "Could not write geofence store", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        mRecords = 0;
+        if (mFile.exists() && !mFile.delete()) {
+            Log.e(MODULE_NAME, "Could not delete geofence store");
+        }
+    }
+
+    /**
+     * Whether outdated records dominate the file.
+     */
+    @Override
+    public synchronized boolean needsCompaction(int liveRegions) {
+        return mRecords > MIN_COMPACT_RECORDS && mRecords > 2 * liveRegions;
+    }
+
+    /**
+     * Rewrites the file with only the given regions, location and suppressed enters.
+     */
+    @Override
+    public synchronized void compact(Collection<GeofenceOptions> regions, double[] location, RNGeofenceIdDictionary ids,
+                                     Collection<String> suppressedEnters) {
+        rewrite(regions, location, ids, suppressedEnters);
+    }
+
+    private void rewrite(Collection<GeofenceOptions> regions, double[] location, RNGeofenceIdDictionary ids,
+                         Collection<String> suppressedEnters) {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(OP_HANDLES);
+            out.writeInt(ids.getNextHandle());
+            for (GeofenceOptions options : regions) {
+                out.writeByte(OP_PUT);
+                writeOptions(out, options);
+                out.writeInt(ids.getHandle(options.id));
+            }
+            if (location != null) {
+                out.writeByte(OP_LOCATION);
+                out.writeDouble(location[0]);
+                out.writeDouble(location[1]);
+            }
+            if (!suppressedEnters.isEmpty()) {
+                out.writeByte(OP_SUPPRESSED);
+                writeIds(out, suppressedEnters);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("Could not replace " + mFile);
+            }
+            mRecords = 1 + regions.size() + (location != null ? 1 : 0) + (suppressedEnters.isEmpty() ? 0 : 1);
+        } catch (IOException e) {
+            Log.e(MODULE_NAME, "Could not rewrite geofence store", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private DataOutputStream openForAppend() throws IOException {
+        boolean exists = mFile.exists() && mFile.length() > 0;
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(mFile, true), BUFFER_SIZE));
+        if (!exists) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+        return out;
+    }
+
+    private static void writeOptions(DataOutputStream out, GeofenceOptions options) throws IOException {
+        out.writeUTF(options.id);
+        out.writeDouble(options.latitude);
+        out.writeDouble(options.longitude);
+        out.writeFloat(options.radius);
+        out.writeInt(options.transitionTypes);
+        out.writeInt(options.loiteringDelay);
+        out.writeLong(options.expirationDuration);
+        if (options.polygon == null) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(options.polygon.latitudes.length);
+            for (int i = 0; i < options.polygon.latitudes.length; i++) {
+                out.writeDouble(options.polygon.latitudes[i]);
+                out.writeDouble(options.polygon.longitudes[i]);
+            }
+        }
+        out.writeInt(options.tags.length);
+        for (String tag : options.tags) {
+            out.writeUTF(tag);
+        }
+        out.writeLong(options.expiresAt);
+    }
+
+    /**
+     * Reads a region record, throwing an {@code IOException} if a count in it cannot fit in a
+     * file of {@code fileLength} bytes.
+     */
+    private static GeofenceOptions readOptions(DataInputStream in, long fileLength) throws IOException {
+        String id = in.readUTF();
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        float radius = in.readFloat();
+        int transitionTypes = in.readInt();
+        int loiteringDelay = in.readInt();
+        long expirationDuration = in.readLong();
+        RNGeofencePolygon polygon = null;
+        int vertices = in.readInt();
+        if (vertices < 0 || vertices * 16L > fileLength) {
+            throw new IOException("Corrupt polygon of " + vertices + " vertices");
+        }
+        if (vertices > 0) {
+            double[] latitudes = new double[vertices];
+            double[] longitudes = new double[vertices];
+            for (int i = 0; i < vertices; i++) {
+                latitudes[i] = in.readDouble();
+                longitudes[i] = in.readDouble();
+            }
+            polygon = new RNGeofencePolygon(latitudes, longitudes);
+        }
+        String[] tags = GeofenceOptions.NO_TAGS;
+        int tagCount = in.readInt();
+        if (tagCount < 0 || tagCount * 2L > fileLength) {
+            throw new IOException("Corrupt tags of " + tagCount + " tags");
+        }
+        if (tagCount > 0) {
+            tags = new String[tagCount];
+            for (int i = 0; i < tagCount; i++) {
+                tags[i] = in.readUTF();
+            }
+        }
+        long expiresAt = in.readLong();
+        return new GeofenceOptions(id, longitude, latitude, radius, transitionTypes, loiteringDelay,
+                expirationDuration, polygon, tags, expiresAt);
+    }
+
+    private static void writeIds(DataOutputStream out, Collection<String> ids) throws IOException {
+        out.writeInt(ids.size());
+        for (String id : ids) {
+            out.writeUTF(id);
+        }
+    }
+
+    private static List<String> readIds(DataInputStream in, long fileLength) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count * 2L > fileLength) {
+            throw new IOException("Corrupt list of " + count + " ids");
+        }
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(in.readUTF());
+        }
+        return ids;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
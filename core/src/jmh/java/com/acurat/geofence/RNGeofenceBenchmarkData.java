@@ -0,0 +1,62 @@
+package com.acurat.geofence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic regions for the benchmarks, spread over a city sized area.
+ */
+final class RNGeofenceBenchmarkData {
+
+    static final double LATITUDE = 48.137;
+    static final double LONGITUDE = 11.575;
+    static final double SPREAD = 0.5;
+
+    private RNGeofenceBenchmarkData() {
+    }
+
+    /**
+     * Regions as they arrive from JS, with an id of the usual UUID length.
+     */
+    static List<Map<String, Object>> circles(int count, long seed) {
+        Random random = new Random(seed);
+        List<Map<String, Object>> regions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> region = new HashMap<>();
+            region.put("id", String.format("%08x-0000-4000-8000-%012x", seed, i));
+            region.put("latitude", LATITUDE + (random.nextDouble() - 0.5) * SPREAD);
+            region.put("longitude", LONGITUDE + (random.nextDouble() - 0.5) * SPREAD);
+            region.put("radius", 50.0 + random.nextInt(450));
+            regions.add(region);
+        }
+        return regions;
+    }
+
+    static Map<String, Object> polygon(int vertices, long seed) {
+        Random random = new Random(seed);
+        List<Map<String, Object>> polygon = new ArrayList<>(vertices);
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double distance = 0.001 + random.nextDouble() * 0.002;
+            Map<String, Object> vertex = new HashMap<>();
+            vertex.put("latitude", LATITUDE + distance * Math.sin(angle));
+            vertex.put("longitude", LONGITUDE + distance * Math.cos(angle));
+            polygon.add(vertex);
+        }
+        Map<String, Object> region = new HashMap<>();
+        region.put("id", "polygon-" + seed);
+        region.put("polygon", polygon);
+        return region;
+    }
+
+    static List<GeofenceOptions> parse(List<Map<String, Object>> regions) {
+        List<GeofenceOptions> options = new ArrayList<>(regions.size());
+        for (Map<String, Object> region : regions) {
+            options.add(GeofenceOptions.fromReader(new RNGeofenceMapReader(region)));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,54 @@
+package com.acurat.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding and decoding one transition event.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RNGeofenceCodecBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int requestIds;
+
+    private RNGeofenceDataObject mEvent;
+    private byte[] mEncoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] ids = new String[requestIds];
+        for (int i = 0; i < requestIds; i++) {
+            ids[i] = String.format("00000001-0000-4000-8000-%012x", i);
+        }
+        mEvent = new RNGeofenceDataObject(RNGeofenceConstants.TRANSITION_ENTER, ids, System.currentTimeMillis());
+        mEncoded = RNGeofenceTransitionCodec.encode(mEvent, 0);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return RNGeofenceTransitionCodec.encode(mEvent, 0);
+    }
+
+    @Benchmark
+    public RNGeofenceDataObject decode() throws IOException {
+        return RNGeofenceTransitionCodec.decode(mEncoded);
+    }
+}
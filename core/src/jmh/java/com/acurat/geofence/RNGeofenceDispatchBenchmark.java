@@ -0,0 +1,47 @@
+package com.acurat.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of handing one transition to the module, including its delivery to the subscriber.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RNGeofenceDispatchBenchmark {
+
+    private final RNGeofenceDispatcher mDispatcher = new RNGeofenceDispatcher();
+    private RNGeofenceDataObject mEvent;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        mEvent = new RNGeofenceDataObject(RNGeofenceConstants.TRANSITION_ENTER,
+                new String[]{"00000001-0000-4000-8000-000000000000"}, System.currentTimeMillis());
+        mDispatcher.subscribe(new RNGeofenceDispatcher.Subscriber() {
+            @Override
+            public void onTransition(RNGeofenceDataObject event) {
+                blackhole.consume(event);
+            }
+        });
+    }
+
+    @Benchmark
+    public boolean offer() {
+        return mDispatcher.offer(mEvent);
+    }
+}
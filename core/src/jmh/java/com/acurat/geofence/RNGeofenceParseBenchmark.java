@@ -0,0 +1,95 @@
+package com.acurat.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading and validating one region.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RNGeofenceParseBenchmark {
+
+    private static final int REGIONS = 1024;
+
+    private List<Map<String, Object>> mCircles;
+    private byte[] mPacked;
+    private byte[] mCsv;
+    private int mNext;
+
+    @State(Scope.Thread)
+    public static class Polygon {
+
+        @Param({"10", "100", "500"})
+        public int vertices;
+
+        private Map<String, Object> mPolygon;
+
+        @Setup
+        public void setUp() {
+            mPolygon = RNGeofenceBenchmarkData.polygon(vertices, 1);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        mCircles = RNGeofenceBenchmarkData.circles(REGIONS, 1);
+        List<GeofenceOptions> regions = RNGeofenceBenchmarkData.parse(mCircles);
+        mPacked = RNGeofenceImporter.pack(regions);
+        StringBuilder csv = new StringBuilder("id,latitude,longitude,radius\n");
+        for (GeofenceOptions options : regions) {
+            csv.append(options.id).append(',').append(options.latitude).append(',')
+                    .append(options.longitude).append(',').append(options.radius).append('\n');
+        }
+        mCsv = csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public GeofenceOptions circle() {
+        mNext = (mNext + 1) & (REGIONS - 1);
+        return GeofenceOptions.fromReader(new RNGeofenceMapReader(mCircles.get(mNext)));
+    }
+
+    /**
+     * Includes the minimal enclosing circle and the edge table of the polygon.
+     */
+    @Benchmark
+    public GeofenceOptions polygon(Polygon state) {
+        return GeofenceOptions.fromReader(new RNGeofenceMapReader(state.mPolygon));
+    }
+
+    /**
+     * Per region cost of a bulk import, to compare with {@link #circle()}.
+     */
+    @Benchmark
+    @OperationsPerInvocation(REGIONS)
+    public List<GeofenceOptions> importPacked() {
+        return RNGeofenceImporter.read(ByteBuffer.wrap(mPacked));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REGIONS)
+    public List<GeofenceOptions> importCsv() {
+        return RNGeofenceImporter.read(ByteBuffer.wrap(mCsv));
+    }
+}
@@ -0,0 +1,95 @@
+package com.acurat.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of preparing a bulk registration and of the queries over the registered regions, for
+ * registries of different sizes. Everything up to the Play Services call is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RNGeofenceRegistrationBenchmark {
+
+    @Param({"10", "1000", "50000"})
+    public int regions;
+
+    private List<Map<String, Object>> mMaps;
+    private RNGeofenceRegistry mRegistry;
+    private RNGeofenceRegistry mClustered;
+    private double[] mDistances = new double[10];
+    private int mStep;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mMaps = RNGeofenceBenchmarkData.circles(regions, 1);
+        mRegistry = new RNGeofenceRegistry();
+        mRegistry.putAll(RNGeofenceBenchmarkData.parse(mMaps));
+        mRegistry.select(RNGeofenceBenchmarkData.LATITUDE, RNGeofenceBenchmarkData.LONGITUDE);
+        mClustered = new RNGeofenceRegistry();
+        mClustered.putAll(RNGeofenceBenchmarkData.parse(mMaps));
+    }
+
+    /**
+     * Reads every region, adds them to an empty registry and selects the ones to register.
+     */
+    @Benchmark
+    public RNGeofenceRegistry.Swap prepare() {
+        RNGeofenceRegistry registry = new RNGeofenceRegistry();
+        registry.putAll(RNGeofenceBenchmarkData.parse(mMaps));
+        return registry.select(RNGeofenceBenchmarkData.LATITUDE, RNGeofenceBenchmarkData.LONGITUDE);
+    }
+
+    /**
+     * Selection after the device moved, as done when the refresh geofence is exited.
+     */
+    @Benchmark
+    public RNGeofenceRegistry.Swap reselect() {
+        mStep = (mStep + 1) & 63;
+        return mRegistry.select(RNGeofenceBenchmarkData.LATITUDE + mStep * 0.002,
+                RNGeofenceBenchmarkData.LONGITUDE);
+    }
+
+    /**
+     * Clusters every region into cells of about 1 km and selects the ones to register.
+     */
+    @Benchmark
+    public RNGeofenceRegistry.Swap cluster() {
+        mStep = (mStep + 1) & 63;
+        // A different radius every time, so that the regions are clustered again
+        mClustered.setClusterRadius(1000 + mStep);
+        return mClustered.select(RNGeofenceBenchmarkData.LATITUDE, RNGeofenceBenchmarkData.LONGITUDE);
+    }
+
+    @Benchmark
+    public List<GeofenceOptions> queryContaining() {
+        mStep = (mStep + 1) & 63;
+        return mRegistry.queryContaining(RNGeofenceBenchmarkData.LATITUDE + mStep * 0.002,
+                RNGeofenceBenchmarkData.LONGITUDE);
+    }
+
+    @Benchmark
+    public List<GeofenceOptions> nearest() {
+        mStep = (mStep + 1) & 63;
+        return mRegistry.nearest(RNGeofenceBenchmarkData.LATITUDE + mStep * 0.002,
+                RNGeofenceBenchmarkData.LONGITUDE, mDistances.length, mDistances);
+    }
+}
@@ -0,0 +1,74 @@
+package com.acurat.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per location of replaying a CSV trace, a walk through the benchmark area sampled
+ * every second.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RNGeofenceReplayBenchmark {
+
+    private static final int LOCATIONS = 100000;
+
+    @Param({"100", "10000"})
+    public int regions;
+
+    private List<GeofenceOptions> mRegions;
+    private byte[] mTrace;
+
+    @Setup
+    public void setUp() {
+        mRegions = RNGeofenceBenchmarkData.parse(RNGeofenceBenchmarkData.circles(regions, 1));
+        Random random = new Random(2);
+        StringBuilder trace = new StringBuilder(LOCATIONS * 40).append("timestamp,latitude,longitude\n");
+        double latitude = RNGeofenceBenchmarkData.LATITUDE;
+        double longitude = RNGeofenceBenchmarkData.LONGITUDE;
+        long timestamp = 1700000000000L;
+        for (int i = 0; i < LOCATIONS; i++) {
+            latitude += (random.nextDouble() - 0.5) * 0.0002;
+            longitude += (random.nextDouble() - 0.5) * 0.0003;
+            timestamp += 1000;
+            trace.append(timestamp).append(',')
+                    .append(String.format("%.7f,%.7f", latitude, longitude)).append('\n');
+        }
+        mTrace = trace.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOCATIONS)
+    public long replay(final Blackhole blackhole) {
+        RNGeofenceTraceReplay replay = new RNGeofenceTraceReplay(mRegions, new RNGeofenceTraceReplay.Listener() {
+            @Override
+            public void onTransition(RNGeofenceDataObject event) {
+                blackhole.consume(event);
+            }
+        });
+        RNGeofenceTraceReader.read(ByteBuffer.wrap(mTrace), replay);
+        replay.finish();
+        return replay.getEvents();
+    }
+}
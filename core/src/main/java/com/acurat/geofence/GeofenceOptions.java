@@ -0,0 +1,296 @@
+package com.acurat.geofence;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+final class GeofenceOptions {
+    static final String[] NO_TAGS = new String[0];
+
+    final String id;
+    final double longitude;
+    final double latitude;
+    final float radius;
+    final int transitionTypes;
+    final int loiteringDelay;
+    final long expirationDuration;
+    // Null for circular regions, otherwise the circle above encloses the polygon
+    final RNGeofencePolygon polygon;
+    // Distinct tags in the order given, for removing and listing regions by tag
+    final String[] tags;
+    // Wall clock time the region expires at, set by the registry when the region is added
+    final long expiresAt;
+
+    GeofenceOptions(
+            String id,
+            double longitude,
+            double latitude,
+            float radius,
+            int transitionTypes,
+            int loiteringDelay,
+            long expirationDuration,
+            RNGeofencePolygon polygon,
+            String[] tags) {
+        this(id, longitude, latitude, radius, transitionTypes, loiteringDelay, expirationDuration, polygon, tags,
+                RNGeofenceConstants.NEVER_EXPIRE);
+    }
+
+    GeofenceOptions(
+            String id,
+            double longitude,
+            double latitude,
+            float radius,
+            int transitionTypes,
+            int loiteringDelay,
+            long expirationDuration,
+            RNGeofencePolygon polygon,
+            String[] tags,
+            long expiresAt) {
+        this.id = id;
+        this.longitude = longitude;
+        this.latitude = latitude;
+        this.radius = radius;
+        this.transitionTypes = transitionTypes;
+        this.loiteringDelay = loiteringDelay;
+        this.expirationDuration = expirationDuration;
+        this.polygon = polygon;
+        this.tags = tags;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Reads and validates a region, throwing an {@code IllegalArgumentException} if it is invalid.
+     */
+    static GeofenceOptions fromReader(RNGeofenceRegionReader reader) {
+        String id = reader.getString("id");
+        if (reader.hasKey("polygon")) {
+            return fromPolygon(id, reader);
+        }
+        double longitude = reader.getDouble("longitude");
+        double latitude = reader.getDouble("latitude");
+        float radius = reader.hasKey("radius") ?
+                (float) reader.getDouble("radius") :
+                RNGeofenceConstants.DEFAULT_RADIUS;
+        int transitionTypes = readTransitionTypes(id, reader);
+        int loiteringDelay = readLoiteringDelay(id, reader);
+        long expirationDuration = reader.hasKey("expirationDuration") ?
+                (long) reader.getInt("expirationDuration") :
+                RNGeofenceConstants.NEVER_EXPIRE;
+
+        validate(id, latitude, longitude, radius);
+        return new GeofenceOptions(id, longitude, latitude, radius, transitionTypes, loiteringDelay, expirationDuration,
+                null, readTags(reader));
+    }
+
+    /**
+     * Reads a polygon region, given as a list of {@code {latitude, longitude}} vertices, and
+     * centers it on the minimal circle enclosing them.
+     */
+    private static GeofenceOptions fromPolygon(String id, RNGeofenceRegionReader reader) {
+        int size = reader.getArraySize("polygon");
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        for (int i = 0; i < size; i++) {
+            RNGeofenceRegionReader vertex = reader.getArrayMap("polygon", i);
+            latitudes[i] = vertex.getDouble("latitude");
+            longitudes[i] = vertex.getDouble("longitude");
+            validate(id, latitudes[i], longitudes[i], 1);
+        }
+        if (size < 3) {
+            throw new IllegalArgumentException("Polygon of region " + id + " needs at least 3 vertices");
+        }
+
+        RNGeofencePolygon polygon = new RNGeofencePolygon(latitudes, longitudes);
+        double[] circle = polygon.enclosingCircle();
+        // Rounded up so that float precision never leaves a vertex outside the circle
+        float radius = Math.max(1, (float) Math.ceil(circle[2]));
+        int transitionTypes = readTransitionTypes(id, reader);
+        int loiteringDelay = readLoiteringDelay(id, reader);
+        long expirationDuration = reader.hasKey("expirationDuration") ?
+                (long) reader.getInt("expirationDuration") :
+                RNGeofenceConstants.NEVER_EXPIRE;
+
+        return new GeofenceOptions(id, circle[1], circle[0], radius, transitionTypes, loiteringDelay,
+                expirationDuration, polygon, readTags(reader));
+    }
+
+    /**
+     * Validates a circular region read from some other source than JS, such as a packed import.
+     */
+    static GeofenceOptions circle(String id, double latitude, double longitude, float radius,
+                                  int transitionTypes, int loiteringDelay, long expirationDuration) {
+        validate(id, latitude, longitude, radius);
+        int known = RNGeofenceConstants.TRANSITION_ENTER | RNGeofenceConstants.TRANSITION_EXIT
+                | RNGeofenceConstants.TRANSITION_DWELL;
+        if (transitionTypes == 0 || (transitionTypes & ~known) != 0) {
+            throw new IllegalArgumentException("Not valid transitions for region " + id);
+        }
+        boolean dwell = (transitionTypes & RNGeofenceConstants.TRANSITION_DWELL) != 0;
+        if (dwell ? loiteringDelay <= 0 : loiteringDelay != 0) {
+            throw new IllegalArgumentException("Not a valid loitering delay for region " + id);
+        }
+        return new GeofenceOptions(id, longitude, latitude, radius, transitionTypes, loiteringDelay, expirationDuration,
+                null, NO_TAGS);
+    }
+
+    /**
+     * Copy of the region with the given tags instead of its own.
+     */
+    GeofenceOptions withTags(String[] tags) {
+        return new GeofenceOptions(id, longitude, latitude, radius, transitionTypes, loiteringDelay, expirationDuration,
+                polygon, tags, expiresAt);
+    }
+
+    /**
+     * Copy of the region that expires at the given wall clock time.
+     */
+    GeofenceOptions expiringAt(long expiresAt) {
+        return new GeofenceOptions(id, longitude, latitude, radius, transitionTypes, loiteringDelay, expirationDuration,
+                polygon, tags, expiresAt);
+    }
+
+    /**
+     * Expiration duration left at {@code now}, for registering the region again without
+     * extending its life.
+     */
+    long remainingDuration(long now) {
+        if (expirationDuration == RNGeofenceConstants.NEVER_EXPIRE || expiresAt == RNGeofenceConstants.NEVER_EXPIRE) {
+            return expirationDuration;
+        }
+        // A region that is already due expires right after it is registered
+        return Math.max(1, expiresAt - now);
+    }
+
+    /**
+     * Transitions delivered for the region. Enter and exit are delivered unless they are turned
+     * off, dwell is delivered once a {@code loiteringDelay} is given.
+     */
+    private static int readTransitionTypes(String id, RNGeofenceRegionReader reader) {
+        int transitionTypes = 0;
+        if (!reader.hasKey("notifyOnEnter") || reader.getBoolean("notifyOnEnter")) {
+            transitionTypes |= RNGeofenceConstants.TRANSITION_ENTER;
+        }
+        if (!reader.hasKey("notifyOnExit") || reader.getBoolean("notifyOnExit")) {
+            transitionTypes |= RNGeofenceConstants.TRANSITION_EXIT;
+        }
+        if (reader.hasKey("loiteringDelay")) {
+            transitionTypes |= RNGeofenceConstants.TRANSITION_DWELL;
+        }
+        if (transitionTypes == 0) {
+            throw new IllegalArgumentException("Region " + id + " has no transitions to notify");
+        }
+        return transitionTypes;
+    }
+
+    private static int readLoiteringDelay(String id, RNGeofenceRegionReader reader) {
+        if (!reader.hasKey("loiteringDelay")) {
+            return 0;
+        }
+        int loiteringDelay = reader.getInt("loiteringDelay");
+        if (loiteringDelay <= 0) {
+            throw new IllegalArgumentException("Not a valid loitering delay for region " + id);
+        }
+        return loiteringDelay;
+    }
+
+    private static String[] readTags(RNGeofenceRegionReader reader) {
+        if (!reader.hasKey("tags")) {
+            return NO_TAGS;
+        }
+        int size = reader.getArraySize("tags");
+        String[] tags = new String[size];
+        for (int i = 0; i < size; i++) {
+            tags[i] = reader.getArrayString("tags", i);
+        }
+        return validateTags(tags);
+    }
+
+    /**
+     * Validates tags, dropping duplicates.
+     */
+    static String[] validateTags(String[] tags) {
+        if (tags.length == 0) {
+            return NO_TAGS;
+        }
+        Set<String> distinct = new LinkedHashSet<>(tags.length * 2);
+        for (String tag : tags) {
+            if (tag == null || tag.isEmpty()) {
+                throw new IllegalArgumentException("Tags must be non-empty strings");
+            }
+            distinct.add(tag);
+        }
+        return distinct.toArray(new String[distinct.size()]);
+    }
+
+    private static void validate(String id, double latitude, double longitude, float radius) {
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Region id is missing");
+        }
+        if (id.startsWith(RNGeofenceConstants.RESERVED_ID_PREFIX)) {
+            throw new IllegalArgumentException("Region id " + id + " is reserved");
+        }
+        if (!(latitude >= -90 && latitude <= 90) || !(longitude >= -180 && longitude <= 180)) {
+            throw new IllegalArgumentException("Not a valid coordinate for region " + id);
+        }
+        if (!(radius > 0)) {
+            throw new IllegalArgumentException("Not a valid radius for region " + id);
+        }
+    }
+
+    // The expiry is left out, a region given again with the same duration is unchanged
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        GeofenceOptions that = (GeofenceOptions) o;
+        return sameRegion(that) && Arrays.equals(tags, that.tags);
+    }
+
+    /**
+     * Whether both describe the same geofence for Play Services, which knows about the expiry
+     * but not about tags.
+     */
+    boolean sameGeofence(GeofenceOptions that) {
+        return that != null && sameRegion(that) && expiresAt == that.expiresAt;
+    }
+
+    private boolean sameRegion(GeofenceOptions that) {
+        return Float.compare(that.radius, radius) == 0 &&
+                transitionTypes == that.transitionTypes &&
+                loiteringDelay == that.loiteringDelay &&
+                expirationDuration == that.expirationDuration &&
+                id.equals(that.id) &&
+                Double.compare(that.latitude, latitude) == 0 &&
+                Double.compare(that.longitude, longitude) == 0 &&
+                (polygon != null ? polygon.equals(that.polygon) : that.polygon == null);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = id.hashCode();
+        long bits = Double.doubleToLongBits(latitude);
+        result = 31 * result + (int) (bits ^ (bits >>> 32));
+        bits = Double.doubleToLongBits(longitude);
+        result = 31 * result + (int) (bits ^ (bits >>> 32));
+        result = 31 * result + Float.floatToIntBits(radius);
+        result = 31 * result + transitionTypes;
+        result = 31 * result + loiteringDelay;
+        result = 31 * result + (int) (expirationDuration ^ (expirationDuration >>> 32));
+        result = 31 * result + (polygon != null ? polygon.hashCode() : 0);
+        result = 31 * result + Arrays.hashCode(tags);
+        return result;
+    }
+
+    /**
+     * Options for the coarse geofence that triggers a re-selection of the active regions
+     * when the device leaves it.
+     */
+    static GeofenceOptions refresh(double latitude, double longitude, float radius) {
+        return new GeofenceOptions(RNGeofenceConstants.REFRESH_GEOFENCE_ID, longitude, latitude, radius,
+                RNGeofenceConstants.TRANSITION_EXIT, 0, RNGeofenceConstants.NEVER_EXPIRE, null, NO_TAGS);
+    }
+}
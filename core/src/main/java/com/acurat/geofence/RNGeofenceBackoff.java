@@ -0,0 +1,47 @@
+package com.acurat.geofence;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter. Each delay doubles the previous one up to the maximum and
+ * is then spread randomly over its upper half, so that processes failing at the same time
+ * do not retry at the same time. Not thread safe.
+ */
+final class RNGeofenceBackoff {
+
+    private final long mInitialDelay;
+    private final long mMaxDelay;
+    private final Random mRandom;
+    private int mAttempts;
+
+    RNGeofenceBackoff(long initialDelay, long maxDelay, Random random) {
+        if (initialDelay <= 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Invalid backoff " + initialDelay + " to " + maxDelay);
+        }
+        mInitialDelay = initialDelay;
+        mMaxDelay = maxDelay;
+        mRandom = random;
+    }
+
+    /**
+     * Returns the delay before the next attempt and counts the attempt.
+     */
+    long nextDelay() {
+        long delay = mMaxDelay;
+        // Shifting further would only overflow, the maximum is reached long before
+        if (mAttempts < 62 && mInitialDelay <= mMaxDelay >> mAttempts) {
+            delay = mInitialDelay << mAttempts;
+        }
+        mAttempts++;
+        long half = delay / 2;
+        return delay - half + (long) (mRandom.nextDouble() * (half + 1));
+    }
+
+    int getAttempts() {
+        return mAttempts;
+    }
+
+    void reset() {
+        mAttempts = 0;
+    }
+}
@@ -0,0 +1,191 @@
+package com.acurat.geofence;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Groups small regions that lie close together, so that each group can be registered as a
+ * single enclosing geofence. Regions are bucketed into a grid of cells about as wide as the
+ * cluster radius, and every cell with at least two eligible regions becomes a cluster of up
+ * to {@link #MAX_MEMBERS} regions. The grid is aligned to fixed coordinates, so a cluster
+ * keeps its id as long as the regions of its cell do not change. Runs in linear time.
+ * <p>
+ * Only regions with a radius of at most half the cluster radius that never expire are
+ * clustered, all others are left as they are. Not thread safe.
+ */
+final class RNGeofenceClusterer {
+
+    static final int NO_CLUSTER = -1;
+    // Keeps an entered cluster, which registers all of its members, within the active limit
+    static final int MAX_MEMBERS = 48;
+
+    private int[] mClusterOf = new int[0];
+    private int mCount;
+    private String[] mIds = new String[0];
+    private double[] mLatitudes = new double[0];
+    private double[] mLongitudes = new double[0];
+    private float[] mRadii = new float[0];
+    // Members of cluster i are mMembers[mStarts[i]] to mMembers[mStarts[i + 1] - 1]
+    private int[] mStarts = new int[1];
+    private int[] mMembers = new int[0];
+
+    /**
+     * Clusters the first {@code size} regions of the arrays, replacing the previous result.
+     */
+    void cluster(GeofenceOptions[] regions, double[] latitudes, double[] longitudes, float[] radii, int size,
+                 float clusterRadius) {
+        if (mClusterOf.length < size) {
+            mClusterOf = new int[regions.length];
+        }
+        Arrays.fill(mClusterOf, 0, size, NO_CLUSTER);
+        mCount = 0;
+        if (!(clusterRadius > 0)) {
+            mStarts[0] = 0;
+            return;
+        }
+
+        // First pass counts the eligible regions of every cell
+        double cellLatitude = clusterRadius / RNGeofencePolygon.METERS_PER_DEGREE;
+        long[] cells = new long[size];
+        boolean[] eligible = new boolean[size];
+        // Per cell the number of regions, the number assigned so far and the open cluster
+        Map<Long, int[]> counts = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (radii[i] > clusterRadius / 2
+                    || regions[i].expirationDuration != RNGeofenceConstants.NEVER_EXPIRE) {
+                continue;
+            }
+            long row = (long) Math.floor(latitudes[i] / cellLatitude);
+            double cos = Math.max(0.01, Math.cos(Math.toRadians((row + 0.5) * cellLatitude)));
+            long column = (long) Math.floor(longitudes[i] / (cellLatitude / cos));
+            cells[i] = (row << 32) | (column & 0xFFFFFFFFL);
+            eligible[i] = true;
+            int[] cell = counts.get(cells[i]);
+            if (cell == null) {
+                counts.put(cells[i], new int[]{1, 0, NO_CLUSTER});
+            } else {
+                cell[0]++;
+            }
+        }
+
+        // Second pass assigns the clusters, a cell is split into chunks of MAX_MEMBERS
+        int members = 0;
+        for (int i = 0; i < size; i++) {
+            if (!eligible[i]) {
+                continue;
+            }
+            int[] cell = counts.get(cells[i]);
+            if (cell[0] < 2) {
+                continue;
+            }
+            if (cell[1] % MAX_MEMBERS == 0) {
+                if (cell[0] - cell[1] < 2) {
+                    // A last chunk of one region would gain nothing
+                    continue;
+                }
+                ensureClusters(mCount + 1);
+                int chunk = cell[1] / MAX_MEMBERS;
+                mIds[mCount] = RNGeofenceConstants.CLUSTER_GEOFENCE_PREFIX + (cells[i] >> 32) + ":" + (int) cells[i]
+                        + (chunk > 0 ? "#" + chunk : "");
+                cell[2] = mCount++;
+            }
+            cell[1]++;
+            mClusterOf[i] = cell[2];
+            members++;
+        }
+
+        buildMembers(latitudes, longitudes, radii, size, members);
+    }
+
+    private void buildMembers(double[] latitudes, double[] longitudes, float[] radii, int size, int members) {
+        if (mStarts.length < mCount + 1) {
+            mStarts = new int[mCount + 1];
+        }
+        if (mMembers.length < members) {
+            mMembers = new int[members];
+        }
+        Arrays.fill(mStarts, 0, mCount + 1, 0);
+        for (int i = 0; i < size; i++) {
+            if (mClusterOf[i] != NO_CLUSTER) {
+                mStarts[mClusterOf[i] + 1]++;
+            }
+        }
+        for (int c = 0; c < mCount; c++) {
+            mStarts[c + 1] += mStarts[c];
+        }
+        int[] next = Arrays.copyOf(mStarts, mCount);
+        for (int i = 0; i < size; i++) {
+            if (mClusterOf[i] != NO_CLUSTER) {
+                mMembers[next[mClusterOf[i]]++] = i;
+            }
+        }
+
+        for (int c = 0; c < mCount; c++) {
+            double latitude = 0;
+            double longitude = 0;
+            int count = mStarts[c + 1] - mStarts[c];
+            for (int m = mStarts[c]; m < mStarts[c + 1]; m++) {
+                latitude += latitudes[mMembers[m]];
+                longitude += longitudes[mMembers[m]];
+            }
+            latitude /= count;
+            longitude /= count;
+            double cos = Math.cos(Math.toRadians(latitude));
+            double radius = 0;
+            for (int m = mStarts[c]; m < mStarts[c + 1]; m++) {
+                int slot = mMembers[m];
+                double dx = (longitudes[slot] - longitude) * cos;
+                double dy = latitudes[slot] - latitude;
+                radius = Math.max(radius, Math.sqrt(dx * dx + dy * dy) * RNGeofencePolygon.METERS_PER_DEGREE + radii[slot]);
+            }
+            mLatitudes[c] = latitude;
+            mLongitudes[c] = longitude;
+            // Rounded up so that float precision never leaves a member outside the circle
+            mRadii[c] = (float) Math.ceil(radius) + 1;
+        }
+    }
+
+    private void ensureClusters(int capacity) {
+        if (mIds.length >= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mIds.length * 2);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+        mRadii = Arrays.copyOf(mRadii, newCapacity);
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Cluster index of a region slot, or {@link #NO_CLUSTER}.
+     */
+    int getCluster(int slot) {
+        return slot < mClusterOf.length ? mClusterOf[slot] : NO_CLUSTER;
+    }
+
+    String getId(int cluster) {
+        return mIds[cluster];
+    }
+
+    int getMemberCount(int cluster) {
+        return mStarts[cluster + 1] - mStarts[cluster];
+    }
+
+    int getMember(int cluster, int index) {
+        return mMembers[mStarts[cluster] + index];
+    }
+
+    /**
+     * Options of the geofence enclosing the members, which only reports enters and exits.
+     */
+    GeofenceOptions toOptions(int cluster) {
+        return new GeofenceOptions(mIds[cluster], mLongitudes[cluster], mLatitudes[cluster], mRadii[cluster],
+                RNGeofenceConstants.TRANSITION_ENTER | RNGeofenceConstants.TRANSITION_EXIT, 0,
+                RNGeofenceConstants.NEVER_EXPIRE, null, GeofenceOptions.NO_TAGS);
+    }
+}
@@ -0,0 +1,40 @@
+package com.acurat.geofence;
+
+final class RNGeofenceConstants {
+
+    public static final int REQUEST_PERMISSIONS_REQUEST_CODE = 34;
+    public static final float DEFAULT_RADIUS = 50;
+    public static final String MODULE_NAME = "RNGeofence";
+    public static final String TRANSITION = "onTransition";
+    public static final String TRANSITIONS = "onTransitions";
+    public static final String BATCH_STATS = "onBatchStats";
+    public static final String METRICS = "onMetrics";
+    public static final String EXPIRED = "onExpired";
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    public static final String ENTER = "ENTER";
+    public static final String EXIT = "EXIT";
+    public static final String DWELL = "DWELL";
+    public static final String UNKNOWN_ERROR = "UNKNOWN_ERROR";
+    // Ids starting with the prefix are reserved for the geofences of the module itself
+    public static final String RESERVED_ID_PREFIX = "RNGeofence:";
+    public static final String REFRESH_GEOFENCE_ID = "RNGeofence:refresh";
+    public static final String CLUSTER_GEOFENCE_PREFIX = "RNGeofence:cluster:";
+    // Play Services allows 100 geofences per app, one slot is kept for the refresh geofence
+    public static final int DEFAULT_ACTIVE_LIMIT = 99;
+    public static final float MIN_REFRESH_RADIUS = 200;
+    public static final int REPLAY_BATCH_SIZE = 100;
+    public static final int REGISTRATION_CHUNK_SIZE = 25;
+    public static final int MAX_PENDING_CHUNKS = 2;
+    // Module calls waiting for the worker thread before new ones are rejected
+    public static final int MAX_QUEUED_OPERATIONS = 64;
+    // Same values as the Geofence.GEOFENCE_TRANSITION_* codes of Play Services
+    public static final int TRANSITION_ENTER = 1;
+    public static final int TRANSITION_EXIT = 2;
+    public static final int TRANSITION_DWELL = 4;
+    // Same value as Geofence.NEVER_EXPIRE
+    public static final long NEVER_EXPIRE = -1L;
+    private RNGeofenceConstants() {
+    }
+
+
+}
@@ -0,0 +1,78 @@
+package com.acurat.geofence;
+
+import java.util.Arrays;
+
+/**
+ * Transition payload. It is handed from the receivers to the module in process by
+ * {@link RNGeofenceDispatcher}, and stored with {@link RNGeofenceTransitionCodec} while
+ * nobody listens.
+ */
+public class RNGeofenceDataObject {
+
+    private int transition;
+    private String[] requestIds;
+    private long timestamp;
+
+    public RNGeofenceDataObject() {
+    }
+
+    public RNGeofenceDataObject(int transition, String[] requestIds, long timestamp) {
+        this.transition = transition;
+        this.requestIds = requestIds;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * One of the {@code RNGeofenceConstants.TRANSITION_*} codes, which are the same as the
+     * {@code Geofence.GEOFENCE_TRANSITION_*} codes.
+     */
+    public int getTransition() {
+        return transition;
+    }
+
+    public void setTransition(int transition) {
+        this.transition = transition;
+    }
+
+    public String getTransitionType() {
+        return getTransitionType(transition);
+    }
+
+    public static String getTransitionType(int transition) {
+        switch (transition) {
+            case RNGeofenceConstants.TRANSITION_ENTER:
+                return RNGeofenceConstants.ENTER;
+            case RNGeofenceConstants.TRANSITION_EXIT:
+                return RNGeofenceConstants.EXIT;
+            case RNGeofenceConstants.TRANSITION_DWELL:
+                return RNGeofenceConstants.DWELL;
+            default:
+                return "Unknown Transition";
+        }
+    }
+
+    public String[] getRequestIds() {
+        return requestIds;
+    }
+
+    public void setRequestIds(String[] requestIds) {
+        this.requestIds = requestIds;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "RNGeofenceDataObject{" +
+                "transitionType='" + getTransitionType() + '\'' +
+                ", requestIds=" + Arrays.toString(requestIds) +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
@@ -0,0 +1,192 @@
+package com.acurat.geofence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Suppresses enter and exit oscillation at region borders. A transition is delivered right
+ * away when it is at least {@code margin} meters past the border and the previous transition
+ * of the region was delivered at least {@code holdTime} ago. Any other transition is held,
+ * and delivered only if no reversal follows within the hold time. Transitions that are
+ * undone before they were delivered are counted as suppressed.
+ * <p>
+ * State is kept in primitive arrays indexed by a slot interned per id. Every slot has a timer
+ * on the wheel, for its held transition or else for the end of the hold time of its last
+ * delivery, after which the slot is released. Only regions that flapped recently take
+ * memory. It is not thread safe.
+ */
+final class RNGeofenceDebouncer {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NONE = 0;
+    private static final int WHEEL_TICK = 250;
+    private static final int WHEEL_SLOTS = 256;
+
+    private final Map<String, Integer> mSlots = new HashMap<>();
+    private String[] mIds = new String[INITIAL_CAPACITY];
+    private final RNGeofenceTimerWheel mWheel = new RNGeofenceTimerWheel(WHEEL_TICK, WHEEL_SLOTS);
+    private final List<String> mExpired = new ArrayList<>();
+
+    // Last delivered and held transition of every slot, NONE if there is none
+    private byte[] mDelivered = new byte[INITIAL_CAPACITY];
+    private byte[] mHeld = new byte[INITIAL_CAPACITY];
+    private long[] mDeliveredAt = new long[INITIAL_CAPACITY];
+
+    private long mHoldTime;
+    private float mMargin;
+    private long mSuppressed;
+
+    void configure(long holdTime, float margin) {
+        mHoldTime = Math.max(0, holdTime);
+        mMargin = Math.max(0, margin);
+        if (mHoldTime == 0) {
+            clear();
+        }
+    }
+
+    boolean isEnabled() {
+        return mHoldTime > 0;
+    }
+
+    /**
+     * Returns whether an enter or exit should be delivered now. {@code distance} is the
+     * distance in meters from the region center to the triggering location, or NaN if it is
+     * unknown, in which case the margin is not checked.
+     */
+    boolean onTransition(String id, int transition, long now, double distance, float radius) {
+        if (!isEnabled()) {
+            return true;
+        }
+        int slot = intern(id);
+        if (transition == mDelivered[slot]) {
+            // Back to the delivered state before the reversal was delivered
+            if (mHeld[slot] != NONE) {
+                mHeld[slot] = NONE;
+                mWheel.schedule(id, mDeliveredAt[slot] + mHoldTime);
+                mSuppressed += 2;
+            } else {
+                mSuppressed++;
+            }
+            return false;
+        }
+        if (transition == mHeld[slot]) {
+            // Repeated while held, the first one keeps its deadline
+            mSuppressed++;
+            return false;
+        }
+
+        boolean pastMargin = Double.isNaN(distance) || (transition == RNGeofenceConstants.TRANSITION_ENTER ?
+                distance <= radius - mMargin :
+                distance >= radius + mMargin);
+        boolean holding = mDelivered[slot] != NONE && now - mDeliveredAt[slot] < mHoldTime;
+        if (pastMargin && !holding) {
+            deliver(slot, transition, now);
+            return true;
+        }
+        mHeld[slot] = (byte) transition;
+        mWheel.schedule(id, now + mHoldTime);
+        return false;
+    }
+
+    /**
+     * Delivers the held transitions whose hold time ran out, adding their ids and transitions
+     * to the given lists, and releases the slots whose hold time ended without one.
+     */
+    void advance(long now, List<String> ids, List<Integer> transitions) {
+        mExpired.clear();
+        mWheel.advance(now, mExpired);
+        for (String id : mExpired) {
+            Integer slot = mSlots.get(id);
+            if (slot == null) {
+                continue;
+            }
+            if (mHeld[slot] == NONE) {
+                release(slot);
+                continue;
+            }
+            int transition = mHeld[slot];
+            deliver(slot, transition, now);
+            ids.add(id);
+            transitions.add(transition);
+        }
+    }
+
+    /**
+     * Time to call {@link #advance} at, at or before the earliest held transition or slot to
+     * release, {@code Long.MAX_VALUE} if there is none.
+     */
+    long nextDeadline() {
+        return mWheel.nextWakeUp();
+    }
+
+    long getSuppressed() {
+        return mSuppressed;
+    }
+
+    void clear() {
+        mSlots.clear();
+        Arrays.fill(mIds, null);
+        mWheel.clear();
+        Arrays.fill(mDelivered, (byte) NONE);
+        Arrays.fill(mHeld, (byte) NONE);
+    }
+
+    /**
+     * Distance in meters from the center of a circular region, NaN for polygons whose border
+     * is not a circle or for an unknown location.
+     */
+    static double distance(GeofenceOptions options, double latitude, double longitude) {
+        if (options.polygon != null || Double.isNaN(latitude)) {
+            return Double.NaN;
+        }
+        double dLat = latitude - options.latitude;
+        double dLng = (longitude - options.longitude) * Math.cos(Math.toRadians(options.latitude));
+        return Math.sqrt(dLat * dLat + dLng * dLng) * RNGeofencePolygon.METERS_PER_DEGREE;
+    }
+
+    private void deliver(int slot, int transition, long now) {
+        mDelivered[slot] = (byte) transition;
+        mDeliveredAt[slot] = now;
+        mHeld[slot] = NONE;
+        mWheel.schedule(mIds[slot], now + mHoldTime);
+    }
+
+    /**
+     * Forgets a slot by moving the last slot into it.
+     */
+    private void release(int slot) {
+        int last = mSlots.size() - 1;
+        mSlots.remove(mIds[slot]);
+        if (slot != last) {
+            mIds[slot] = mIds[last];
+            mDelivered[slot] = mDelivered[last];
+            mHeld[slot] = mHeld[last];
+            mDeliveredAt[slot] = mDeliveredAt[last];
+            mSlots.put(mIds[slot], slot);
+        }
+        mIds[last] = null;
+        mDelivered[last] = NONE;
+        mHeld[last] = NONE;
+    }
+
+    private int intern(String id) {
+        Integer slot = mSlots.get(id);
+        if (slot != null) {
+            return slot;
+        }
+        int next = mSlots.size();
+        if (next == mDelivered.length) {
+            int capacity = next * 2;
+            mIds = Arrays.copyOf(mIds, capacity);
+            mDelivered = Arrays.copyOf(mDelivered, capacity);
+            mHeld = Arrays.copyOf(mHeld, capacity);
+            mDeliveredAt = Arrays.copyOf(mDeliveredAt, capacity);
+        }
+        mSlots.put(id, next);
+        mIds[next] = id;
+        return next;
+    }
+}
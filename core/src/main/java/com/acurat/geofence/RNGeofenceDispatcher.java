@@ -0,0 +1,84 @@
+package com.acurat.geofence;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands transitions from the receivers to the module of the process without going through
+ * Intents or a looper. Events are queued without locks and delivered in order on the thread
+ * that offered them. When several threads offer at once, the first one drains the queue for
+ * all of them, so the subscriber is never called concurrently.
+ * <p>
+ * There is at most one subscriber. A module that subscribes replaces the previous one, and
+ * unsubscribing only removes the subscriber if it is still the current one. Events queued
+ * while nobody is subscribed are delivered to the next subscriber.
+ */
+final class RNGeofenceDispatcher {
+
+    interface Subscriber {
+        void onTransition(RNGeofenceDataObject event);
+    }
+
+    private static final RNGeofenceDispatcher sInstance = new RNGeofenceDispatcher();
+
+    private final Queue<RNGeofenceDataObject> mQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Subscriber> mSubscriber = new AtomicReference<>();
+    // Number of drain requests, the thread raising it from 0 drains until it drops back to 0
+    private final AtomicInteger mPending = new AtomicInteger();
+
+    RNGeofenceDispatcher() {
+    }
+
+    static RNGeofenceDispatcher getInstance() {
+        return sInstance;
+    }
+
+    void subscribe(Subscriber subscriber) {
+        mSubscriber.set(subscriber);
+        drain();
+    }
+
+    void unsubscribe(Subscriber subscriber) {
+        mSubscriber.compareAndSet(subscriber, null);
+    }
+
+    /**
+     * Delivers the event to the subscriber, or returns false without queuing it if there is
+     * none, so that the caller can keep it elsewhere.
+     */
+    boolean offer(RNGeofenceDataObject event) {
+        if (mSubscriber.get() == null) {
+            return false;
+        }
+        mQueue.offer(event);
+        drain();
+        return true;
+    }
+
+    private void drain() {
+        if (mPending.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        boolean drained = false;
+        try {
+            do {
+                Subscriber subscriber;
+                RNGeofenceDataObject event;
+                // An unsubscribe in between leaves the remaining events for the next subscriber
+                while ((subscriber = mSubscriber.get()) != null && (event = mQueue.poll()) != null) {
+                    subscriber.onTransition(event);
+                }
+                missed = mPending.addAndGet(-missed);
+            } while (missed != 0);
+            drained = true;
+        } finally {
+            if (!drained) {
+                // Lets the next offer drain again after the subscriber threw
+                mPending.set(0);
+            }
+        }
+    }
+}
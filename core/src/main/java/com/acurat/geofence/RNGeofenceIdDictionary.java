@@ -0,0 +1,151 @@
+package com.acurat.geofence;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Small integer handles for the region ids, so that events can refer to a region without its
+ * id string. Handles increase and are never reused, not even after {@link #clear()}, so a
+ * handle resolved once keeps meaning the same id. Not thread safe, the registry guards it.
+ */
+final class RNGeofenceIdDictionary {
+
+    static final int NO_HANDLE = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int EMPTY = -1;
+
+    private final Map<String, Integer> mHandles = new HashMap<>();
+    // Open addressing table from handle to id, with linear probing
+    private int[] mKeys = newKeys(INITIAL_CAPACITY);
+    private String[] mIds = new String[INITIAL_CAPACITY];
+    private int mNextHandle;
+
+    int size() {
+        return mHandles.size();
+    }
+
+    /**
+     * Returns the handle of the id, assigning the next one if it has none.
+     */
+    int intern(String id) {
+        Integer handle = mHandles.get(id);
+        if (handle != null) {
+            return handle;
+        }
+        put(id, mNextHandle);
+        return mNextHandle++;
+    }
+
+    /**
+     * Restores a handle assigned by an earlier process, replacing any other handle of the id.
+     */
+    void restore(String id, int handle) {
+        remove(id);
+        put(id, handle);
+        mNextHandle = Math.max(mNextHandle, handle + 1);
+    }
+
+    int getHandle(String id) {
+        Integer handle = mHandles.get(id);
+        return handle == null ? NO_HANDLE : handle;
+    }
+
+    /**
+     * Returns the id of a handle, or null if the region was removed or the handle is unknown.
+     */
+    String resolve(int handle) {
+        if (handle < 0) {
+            return null;
+        }
+        for (int i = index(handle); mKeys[i] != EMPTY; i = (i + 1) & (mKeys.length - 1)) {
+            if (mKeys[i] == handle) {
+                return mIds[i];
+            }
+        }
+        return null;
+    }
+
+    void remove(String id) {
+        Integer handle = mHandles.remove(id);
+        if (handle == null) {
+            return;
+        }
+        int mask = mKeys.length - 1;
+        int i = index(handle);
+        while (mKeys[i] != handle) {
+            i = (i + 1) & mask;
+        }
+        // Shifts the entries of the probe run back so that no tombstones are needed
+        int hole = i;
+        for (int j = (i + 1) & mask; mKeys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = index(mKeys[j]);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                mKeys[hole] = mKeys[j];
+                mIds[hole] = mIds[j];
+                hole = j;
+            }
+        }
+        mKeys[hole] = EMPTY;
+        mIds[hole] = null;
+    }
+
+    /**
+     * Forgets every id but keeps counting, so old handles never come back.
+     */
+    void clear() {
+        mHandles.clear();
+        Arrays.fill(mKeys, EMPTY);
+        Arrays.fill(mIds, null);
+    }
+
+    int getNextHandle() {
+        return mNextHandle;
+    }
+
+    void setNextHandle(int nextHandle) {
+        mNextHandle = Math.max(mNextHandle, nextHandle);
+    }
+
+    private void put(String id, int handle) {
+        if ((mHandles.size() + 1) * 2 > mKeys.length) {
+            grow();
+        }
+        mHandles.put(id, handle);
+        int i = index(handle);
+        while (mKeys[i] != EMPTY) {
+            i = (i + 1) & (mKeys.length - 1);
+        }
+        mKeys[i] = handle;
+        mIds[i] = id;
+    }
+
+    private void grow() {
+        int[] keys = mKeys;
+        String[] ids = mIds;
+        mKeys = newKeys(keys.length * 2);
+        mIds = new String[keys.length * 2];
+        for (int j = 0; j < keys.length; j++) {
+            if (keys[j] != EMPTY) {
+                int i = index(keys[j]);
+                while (mKeys[i] != EMPTY) {
+                    i = (i + 1) & (mKeys.length - 1);
+                }
+                mKeys[i] = keys[j];
+                mIds[i] = ids[j];
+            }
+        }
+    }
+
+    private int index(int handle) {
+        // Handles are sequential, so they spread over the table without hashing
+        return handle & (mKeys.length - 1);
+    }
+
+    private static int[] newKeys(int capacity) {
+        int[] keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+}
@@ -0,0 +1,232 @@
+package com.acurat.geofence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reads circular regions in bulk, straight from a buffer instead of one map per region.
+ * Two layouts are accepted.
+ * <p>
+ * Packed, big endian: the magic {@code RNGF}, the version and the number of regions as
+ * ints, then per region the UTF-8 id prefixed by its length as an unsigned short, latitude
+ * and longitude as doubles, the radius as a float, the transition types as a byte, the
+ * loitering delay as an int and the expiration duration as a long.
+ * <p>
+ * CSV, UTF-8: one {@code id,latitude,longitude,radius,loiteringDelay,expirationDuration}
+ * line per region, where the last three columns may be empty or left out. Ids can't contain
+ * commas, a first line starting with {@code id,} is skipped as header.
+ */
+final class RNGeofenceImporter {
+
+    static final int MAGIC = 0x524E4746;
+    static final int VERSION = 1;
+    private static final int REGION_BYTES = 2 + 8 + 8 + 4 + 1 + 4 + 8;
+
+    private RNGeofenceImporter() {
+    }
+
+    /**
+     * Maps the file into memory and reads it, see {@link #read(ByteBuffer)}.
+     */
+    static List<GeofenceOptions> read(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            FileChannel channel = in.getChannel();
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads packed or CSV regions from the remaining bytes of the buffer, throwing an
+     * {@code IllegalArgumentException} for the first invalid region.
+     */
+    static List<GeofenceOptions> read(ByteBuffer buffer) {
+        if (buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == MAGIC) {
+            return readPacked(buffer);
+        }
+        return readCsv(buffer);
+    }
+
+    /**
+     * Packs circular regions in the layout read by {@link #read(ByteBuffer)}.
+     */
+    static byte[] pack(Collection<GeofenceOptions> regions) {
+        List<byte[]> ids = new ArrayList<>(regions.size());
+        int size = 12;
+        for (GeofenceOptions options : regions) {
+            if (options.polygon != null) {
+                throw new IllegalArgumentException("Polygon region " + options.id + " can't be packed");
+            }
+            byte[] id = options.id.getBytes(StandardCharsets.UTF_8);
+            if (id.length > 0xFFFF) {
+                throw new IllegalArgumentException("Id of region " + options.id + " is too long");
+            }
+            ids.add(id);
+            size += REGION_BYTES + id.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(regions.size());
+        int i = 0;
+        for (GeofenceOptions options : regions) {
+            byte[] id = ids.get(i++);
+            buffer.putShort((short) id.length).put(id)
+                    .putDouble(options.latitude)
+                    .putDouble(options.longitude)
+                    .putFloat(options.radius)
+                    .put((byte) options.transitionTypes)
+                    .putInt(options.loiteringDelay)
+                    .putLong(options.expirationDuration);
+        }
+        return buffer.array();
+    }
+
+    private static List<GeofenceOptions> readPacked(ByteBuffer buffer) {
+        try {
+            buffer.getInt();
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unknown packed regions version " + version);
+            }
+            int count = buffer.getInt();
+            // Each region takes at least REGION_BYTES, so a corrupt count can't allocate much
+            if (count < 0 || count > buffer.remaining() / REGION_BYTES) {
+                throw new IllegalArgumentException("Packed regions are truncated");
+            }
+            List<GeofenceOptions> regions = new ArrayList<>(count);
+            byte[] scratch = new byte[64];
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getShort() & 0xFFFF;
+                if (length > scratch.length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                buffer.get(scratch, 0, length);
+                String id = new String(scratch, 0, length, StandardCharsets.UTF_8);
+                double latitude = buffer.getDouble();
+                double longitude = buffer.getDouble();
+                float radius = buffer.getFloat();
+                int transitionTypes = buffer.get() & 0xFF;
+                int loiteringDelay = buffer.getInt();
+                long expirationDuration = buffer.getLong();
+                regions.add(GeofenceOptions.circle(id, latitude, longitude, radius, transitionTypes,
+                        loiteringDelay, expirationDuration));
+            }
+            return regions;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Packed regions are truncated", e);
+        }
+    }
+
+    private static List<GeofenceOptions> readCsv(ByteBuffer buffer) {
+        List<GeofenceOptions> regions = new ArrayList<>();
+        CsvLine line = new CsvLine();
+        int number = 0;
+        while (line.next(buffer)) {
+            number++;
+            if (line.isEmpty() || (number == 1 && "id".equals(line.field(0)))) {
+                continue;
+            }
+            try {
+                regions.add(line.toOptions());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number on line " + number + ": " + e.getMessage(), e);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + number + ": " + e.getMessage(), e);
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Fields of one CSV line, copied from the buffer into a reused array.
+     */
+    private static final class CsvLine {
+
+        private static final int MAX_FIELDS = 6;
+
+        private final int[] mStarts = new int[MAX_FIELDS];
+        private final int[] mEnds = new int[MAX_FIELDS];
+        private byte[] mBytes = new byte[128];
+        private int mFields;
+
+        boolean next(ByteBuffer buffer) {
+            if (!buffer.hasRemaining()) {
+                return false;
+            }
+            int length = 0;
+            mFields = 0;
+            mStarts[0] = 0;
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    break;
+                } else if (b == '\r') {
+                    continue;
+                } else if (b == ',') {
+                    endField(length);
+                    if (mFields < MAX_FIELDS) {
+                        mStarts[mFields] = length;
+                    }
+                    continue;
+                }
+                if (length == mBytes.length) {
+                    mBytes = Arrays.copyOf(mBytes, length * 2);
+                }
+                mBytes[length++] = b;
+            }
+            endField(length);
+            return true;
+        }
+
+        private void endField(int end) {
+            if (mFields < MAX_FIELDS) {
+                mEnds[mFields] = end;
+            }
+            mFields++;
+        }
+
+        boolean isEmpty() {
+            return mFields == 1 && mStarts[0] == mEnds[0];
+        }
+
+        String field(int index) {
+            if (index >= mFields || mStarts[index] == mEnds[index]) {
+                return null;
+            }
+            return new String(mBytes, mStarts[index], mEnds[index] - mStarts[index], StandardCharsets.UTF_8).trim();
+        }
+
+        GeofenceOptions toOptions() {
+            if (mFields > MAX_FIELDS) {
+                throw new IllegalArgumentException("Too many columns");
+            }
+            String id = field(0);
+            String latitude = field(1);
+            String longitude = field(2);
+            if (latitude == null || longitude == null) {
+                throw new IllegalArgumentException("Coordinate of region " + id + " is missing");
+            }
+            String radius = field(3);
+            String loiteringDelay = field(4);
+            String expirationDuration = field(5);
+            int transitionTypes = RNGeofenceConstants.TRANSITION_ENTER | RNGeofenceConstants.TRANSITION_EXIT;
+            if (loiteringDelay != null) {
+                transitionTypes |= RNGeofenceConstants.TRANSITION_DWELL;
+            }
+            return GeofenceOptions.circle(id,
+                    Double.parseDouble(latitude),
+                    Double.parseDouble(longitude),
+                    radius != null ? Float.parseFloat(radius) : RNGeofenceConstants.DEFAULT_RADIUS,
+                    transitionTypes,
+                    loiteringDelay != null ? Integer.parseInt(loiteringDelay) : 0,
+                    expirationDuration != null ? Long.parseLong(expirationDuration) : RNGeofenceConstants.NEVER_EXPIRE);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.acurat.geofence;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a region from a {@code Map} shaped like the JS object, with numbers as any
+ * {@code Number}, arrays as {@code List} and nested objects as {@code Map}.
+ */
+final class RNGeofenceMapReader implements RNGeofenceRegionReader {
+
+    private final Map<String, ?> mMap;
+
+    RNGeofenceMapReader(Map<String, ?> map) {
+        mMap = map;
+    }
+
+    @Override
+    public boolean hasKey(String key) {
+        return mMap.get(key) != null;
+    }
+
+    @Override
+    public String getString(String key) {
+        return (String) mMap.get(key);
+    }
+
+    @Override
+    public double getDouble(String key) {
+        return ((Number) mMap.get(key)).doubleValue();
+    }
+
+    @Override
+    public int getInt(String key) {
+        return ((Number) mMap.get(key)).intValue();
+    }
+
+    @Override
+    public boolean getBoolean(String key) {
+        return (Boolean) mMap.get(key);
+    }
+
+    @Override
+    public int getArraySize(String key) {
+        return ((List<?>) mMap.get(key)).size();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public RNGeofenceRegionReader getArrayMap(String key, int index) {
+        return new RNGeofenceMapReader((Map<String, ?>) ((List<?>) mMap.get(key)).get(index));
+    }
+
+    @Override
+    public String getArrayString(String key, int index) {
+        return (String) ((List<?>) mMap.get(key)).get(index);
+    }
+}
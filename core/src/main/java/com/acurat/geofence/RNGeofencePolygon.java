@@ -0,0 +1,196 @@
+package com.acurat.geofence;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Polygon region. It is registered with Play Services as its minimal enclosing circle and
+ * transitions of that circle are confirmed with a point-in-polygon test.
+ */
+final class RNGeofencePolygon {
+
+    static final double METERS_PER_DEGREE = 111195.0;
+
+    final double[] latitudes;
+    final double[] longitudes;
+
+    // Edge table for the crossing test, one entry per edge with a non-zero latitude span
+    private final double[] mEdgeLatitudes0;
+    private final double[] mEdgeLatitudes1;
+    private final double[] mEdgeLongitudes0;
+    private final double[] mEdgeSlopes;
+
+    private final double mMinLatitude;
+    private final double mMaxLatitude;
+    private final double mMinLongitude;
+    private final double mMaxLongitude;
+
+    RNGeofencePolygon(double[] latitudes, double[] longitudes) {
+        if (latitudes.length < 3 || latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("A polygon needs at least 3 vertices");
+        }
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+
+        int n = latitudes.length;
+        double[] edgeLatitudes0 = new double[n];
+        double[] edgeLatitudes1 = new double[n];
+        double[] edgeLongitudes0 = new double[n];
+        double[] edgeSlopes = new double[n];
+        int edges = 0;
+        double minLatitude = Double.MAX_VALUE;
+        double maxLatitude = -Double.MAX_VALUE;
+        double minLongitude = Double.MAX_VALUE;
+        double maxLongitude = -Double.MAX_VALUE;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            minLatitude = Math.min(minLatitude, latitudes[i]);
+            maxLatitude = Math.max(maxLatitude, latitudes[i]);
+            minLongitude = Math.min(minLongitude, longitudes[i]);
+            maxLongitude = Math.max(maxLongitude, longitudes[i]);
+            if (latitudes[i] == latitudes[j]) {
+                // Horizontal edges never cross the test ray
+                continue;
+            }
+            edgeLatitudes0[edges] = latitudes[i];
+            edgeLatitudes1[edges] = latitudes[j];
+            edgeLongitudes0[edges] = longitudes[i];
+            edgeSlopes[edges] = (longitudes[j] - longitudes[i]) / (latitudes[j] - latitudes[i]);
+            edges++;
+        }
+        mEdgeLatitudes0 = Arrays.copyOf(edgeLatitudes0, edges);
+        mEdgeLatitudes1 = Arrays.copyOf(edgeLatitudes1, edges);
+        mEdgeLongitudes0 = Arrays.copyOf(edgeLongitudes0, edges);
+        mEdgeSlopes = Arrays.copyOf(edgeSlopes, edges);
+        mMinLatitude = minLatitude;
+        mMaxLatitude = maxLatitude;
+        mMinLongitude = minLongitude;
+        mMaxLongitude = maxLongitude;
+    }
+
+    /**
+     * Even-odd crossing test of a ray from the point towards increasing longitude.
+     */
+    boolean contains(double latitude, double longitude) {
+        if (latitude < mMinLatitude || latitude > mMaxLatitude
+                || longitude < mMinLongitude || longitude > mMaxLongitude) {
+            return false;
+        }
+        boolean inside = false;
+        for (int i = 0; i < mEdgeSlopes.length; i++) {
+            if ((mEdgeLatitudes0[i] > latitude) != (mEdgeLatitudes1[i] > latitude)
+                    && longitude < mEdgeLongitudes0[i] + mEdgeSlopes[i] * (latitude - mEdgeLatitudes0[i])) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Returns the minimal circle enclosing every vertex as latitude, longitude and radius in
+     * meters, computed with Welzl's algorithm in a local planar projection.
+     */
+    double[] enclosingCircle() {
+        int n = latitudes.length;
+        double originLatitude = (mMinLatitude + mMaxLatitude) / 2;
+        double originLongitude = (mMinLongitude + mMaxLongitude) / 2;
+        double cos = Math.cos(Math.toRadians(originLatitude));
+
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = (longitudes[i] - originLongitude) * cos * METERS_PER_DEGREE;
+            y[i] = (latitudes[i] - originLatitude) * METERS_PER_DEGREE;
+        }
+        // Expected linear time needs the points in random order
+        Random random = new Random(n);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            double tx = x[i];
+            x[i] = x[j];
+            x[j] = tx;
+            double ty = y[i];
+            y[i] = y[j];
+            y[j] = ty;
+        }
+
+        double cx = x[0];
+        double cy = y[0];
+        double r2 = 0;
+        for (int i = 1; i < n; i++) {
+            if (distance2(x[i], y[i], cx, cy) <= r2 * (1 + 1e-12)) {
+                continue;
+            }
+            cx = x[i];
+            cy = y[i];
+            r2 = 0;
+            for (int j = 0; j < i; j++) {
+                if (distance2(x[j], y[j], cx, cy) <= r2 * (1 + 1e-12)) {
+                    continue;
+                }
+                cx = (x[i] + x[j]) / 2;
+                cy = (y[i] + y[j]) / 2;
+                r2 = distance2(x[i], y[i], cx, cy);
+                for (int k = 0; k < j; k++) {
+                    if (distance2(x[k], y[k], cx, cy) <= r2 * (1 + 1e-12)) {
+                        continue;
+                    }
+                    double[] circle = circumcircle(x[i], y[i], x[j], y[j], x[k], y[k]);
+                    cx = circle[0];
+                    cy = circle[1];
+                    r2 = circle[2];
+                }
+            }
+        }
+
+        return new double[]{
+                originLatitude + cy / METERS_PER_DEGREE,
+                originLongitude + cx / (cos * METERS_PER_DEGREE),
+                Math.sqrt(r2)
+        };
+    }
+
+    private static double distance2(double x0, double y0, double x1, double y1) {
+        double dx = x0 - x1;
+        double dy = y0 - y1;
+        return dx * dx + dy * dy;
+    }
+
+    private static double[] circumcircle(double ax, double ay, double bx, double by, double cx, double cy) {
+        double d = 2 * (ax * (by - cy) + bx * (cy - ay) + cx * (ay - by));
+        if (d == 0) {
+            // Collinear points, the circle over the farthest pair encloses the third one
+            double ab = distance2(ax, ay, bx, by);
+            double ac = distance2(ax, ay, cx, cy);
+            double bc = distance2(bx, by, cx, cy);
+            if (ab >= ac && ab >= bc) {
+                return new double[]{(ax + bx) / 2, (ay + by) / 2, ab / 4};
+            } else if (ac >= bc) {
+                return new double[]{(ax + cx) / 2, (ay + cy) / 2, ac / 4};
+            }
+            return new double[]{(bx + cx) / 2, (by + cy) / 2, bc / 4};
+        }
+        double a2 = ax * ax + ay * ay;
+        double b2 = bx * bx + by * by;
+        double c2 = cx * cx + cy * cy;
+        double ux = (a2 * (by - cy) + b2 * (cy - ay) + c2 * (ay - by)) / d;
+        double uy = (a2 * (cx - bx) + b2 * (ax - cx) + c2 * (bx - ax)) / d;
+        return new double[]{ux, uy, distance2(ax, ay, ux, uy)};
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RNGeofencePolygon that = (RNGeofencePolygon) o;
+        return Arrays.equals(latitudes, that.latitudes) && Arrays.equals(longitudes, that.longitudes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(latitudes) + Arrays.hashCode(longitudes);
+    }
+}
@@ -0,0 +1,33 @@
+package com.acurat.geofence;
+
+/**
+ * Read access to a region description, implemented over the JS map on Android and over a
+ * plain {@code Map} everywhere else.
+ */
+interface RNGeofenceRegionReader {
+
+    boolean hasKey(String key);
+
+    String getString(String key);
+
+    double getDouble(String key);
+
+    int getInt(String key);
+
+    boolean getBoolean(String key);
+
+    /**
+     * Size of the array stored under {@code key}.
+     */
+    int getArraySize(String key);
+
+    /**
+     * Reader over the map at {@code index} of the array stored under {@code key}.
+     */
+    RNGeofenceRegionReader getArrayMap(String key, int index);
+
+    /**
+     * String at {@code index} of the array stored under {@code key}.
+     */
+    String getArrayString(String key, int index);
+}
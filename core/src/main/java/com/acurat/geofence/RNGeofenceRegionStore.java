@@ -0,0 +1,48 @@
+package com.acurat.geofence;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistence of the registry. Every change is written through as it happens, so an
+ * implementation is expected to append rather than rewrite.
+ */
+interface RNGeofenceRegionStore {
+
+    /**
+     * Loads the persisted regions into {@code regions}, keyed by id in insertion order, their
+     * handles into {@code ids} and the polygon regions whose enter is suppressed into
+     * {@code suppressedEnters}. Returns the last location used for a selection, or null if
+     * there is none.
+     */
+    double[] load(Map<String, GeofenceOptions> regions, RNGeofenceIdDictionary ids, Set<String> suppressedEnters);
+
+    /**
+     * Persists the regions together with the handles {@code ids} assigned to them.
+     */
+    void putAll(Collection<GeofenceOptions> regions, RNGeofenceIdDictionary ids);
+
+    void removeAll(Collection<String> ids);
+
+    void putLocation(double latitude, double longitude);
+
+    /**
+     * Persists the polygon regions whose enter is suppressed, replacing the previous ones.
+     * Putting or removing a region drops its suppressed enter.
+     */
+    void putSuppressedEnters(Collection<String> ids);
+
+    void clear();
+
+    /**
+     * Whether the persisted data is large enough compared to the live regions to be compacted.
+     */
+    boolean needsCompaction(int liveRegions);
+
+    /**
+     * Replaces the persisted data with only the given regions, location and suppressed enters.
+     */
+    void compact(Collection<GeofenceOptions> regions, double[] location, RNGeofenceIdDictionary ids,
+                 Collection<String> suppressedEnters);
+}
@@ -0,0 +1,955 @@
+package com.acurat.geofence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps every region added through the module and decides which of them are registered
+ * with Play Services. When there are more regions than the active limit only the nearest
+ * ones are registered, together with a refresh geofence around the device that triggers
+ * a new selection once the device leaves it.
+ * <p>
+ * With a cluster radius set, dense small regions are registered as one enclosing cluster
+ * geofence, see {@link RNGeofenceClusterer}. Entering a cluster registers its members until
+ * the cluster is left, and the members the device is in are resolved right away.
+ */
+final class RNGeofenceRegistry {
+
+    private static final double METERS_PER_DEGREE = 111195.0;
+    private static final int INITIAL_CAPACITY = 64;
+    // Expiries are swept with a resolution of 10 seconds, one revolution is about 11 hours
+    private static final long EXPIRY_TICK = 10 * 1000;
+    private static final int EXPIRY_SLOTS = 4096;
+
+    private static RNGeofenceRegistry sInstance;
+
+    private final Map<String, Integer> mSlots = new HashMap<>();
+    // Registered geofences, including clusters, by id
+    private final Map<String, GeofenceOptions> mActive = new HashMap<>();
+    // Removed ids that may still be registered with Play Services
+    private final Set<String> mPendingRemovals = new HashSet<>();
+    // Polygon regions whose enclosing circle was entered outside of the polygon, persisted so
+    // that the exit following a suppressed enter is suppressed in a later process too
+    private final Set<String> mSuppressedEnters = new LinkedHashSet<>();
+    private final RNGeofenceIdDictionary mIds = new RNGeofenceIdDictionary();
+    private final RNGeofenceClusterer mClusterer = new RNGeofenceClusterer();
+    private final Map<String, Integer> mClusters = new HashMap<>();
+    // Clusters the device is in, whose members are registered
+    private final Set<String> mEnteredClusters = new HashSet<>();
+    // Clustered regions the device is in, so that a transition resolved for the cluster is
+    // not delivered again when the geofence of the region reports it
+    private final Set<String> mInsideMembers = new HashSet<>();
+    // Ids of the regions of every tag, in the order they were tagged
+    private final Map<String, Set<String>> mTags = new HashMap<>();
+    // Wall clock expiry of every region that expires
+    private final RNGeofenceTimerWheel mExpiries = new RNGeofenceTimerWheel(EXPIRY_TICK, EXPIRY_SLOTS);
+    private GeofenceOptions[] mRegions = new GeofenceOptions[INITIAL_CAPACITY];
+    private double[] mLatitudes = new double[INITIAL_CAPACITY];
+    private double[] mLongitudes = new double[INITIAL_CAPACITY];
+    private float[] mRadii = new float[INITIAL_CAPACITY];
+    private int mSize;
+    private final RNGeofenceSpatialIndex mIndex = new RNGeofenceSpatialIndex();
+
+    // Scratch buffers reused by every query
+    private int[] mQuerySlots = new int[64];
+    private double[] mQueryDistances = new double[64];
+
+    // Scratch buffers reused by every selection
+    private int[] mOrder = new int[0];
+    private double[] mDistances = new double[0];
+    private int[] mUnits = new int[0];
+    private GeofenceOptions[] mClusterOptions = new GeofenceOptions[0];
+
+    private int mActiveLimit = RNGeofenceConstants.DEFAULT_ACTIVE_LIMIT;
+    private float mClusterRadius;
+    private boolean mClustersStale;
+    private boolean mRefreshActive;
+    private boolean mDirty;
+    private double mLastLatitude = Double.NaN;
+    private double mLastLongitude = Double.NaN;
+    private RNGeofenceRegionStore mStore;
+
+    RNGeofenceRegistry() {
+        mIndex.bind(mLatitudes, mLongitudes, mRadii);
+    }
+
+    static synchronized RNGeofenceRegistry getInstance() {
+        if (sInstance == null) {
+            sInstance = new RNGeofenceRegistry();
+        }
+        return sInstance;
+    }
+
+    synchronized void setActiveLimit(int activeLimit) {
+        mActiveLimit = Math.max(1, Math.min(activeLimit, RNGeofenceConstants.DEFAULT_ACTIVE_LIMIT));
+    }
+
+    /**
+     * Sets the cell size in meters used to cluster regions, 0 turns clustering off. Returns
+     * whether it changed, the next selection then applies it.
+     */
+    synchronized boolean setClusterRadius(float clusterRadius) {
+        clusterRadius = Math.max(0, clusterRadius);
+        if (Float.compare(clusterRadius, mClusterRadius) == 0) {
+            return false;
+        }
+        mClusterRadius = clusterRadius;
+        mClustersStale = true;
+        mEnteredClusters.clear();
+        mInsideMembers.clear();
+        return true;
+    }
+
+    /**
+     * Loads the regions kept by the store and persists every later change to it. Geofences
+     * registered by a previous process are unknown, so the first selection replaces them all.
+     */
+    synchronized void attach(RNGeofenceRegionStore store) {
+        if (mStore != null) {
+            return;
+        }
+        Map<String, GeofenceOptions> regions = new LinkedHashMap<>();
+        double[] location = store.load(regions, mIds, mSuppressedEnters);
+        ensureCapacity(regions.size());
+        for (GeofenceOptions options : regions.values()) {
+            putInternal(options);
+        }
+        if (location != null) {
+            mLastLatitude = location[0];
+            mLastLongitude = location[1];
+        }
+        if (mSize > 0) {
+            mDirty = true;
+        }
+        mStore = store;
+    }
+
+    synchronized boolean isAttached() {
+        return mStore != null;
+    }
+
+    synchronized void put(GeofenceOptions options) {
+        putAll(Collections.singletonList(options));
+    }
+
+    synchronized void putAll(Collection<GeofenceOptions> regions) {
+        ensureCapacity(mSize + regions.size());
+        long now = System.currentTimeMillis();
+        List<GeofenceOptions> stamped = new ArrayList<>(regions.size());
+        for (GeofenceOptions options : regions) {
+            options = stamp(options, now);
+            putInternal(options);
+            stamped.add(options);
+        }
+        if (mStore != null) {
+            mStore.putAll(stamped, mIds);
+            compactStoreIfNeeded();
+        }
+    }
+
+    /**
+     * Sets the expiry of a region that expires but has none yet, counting from {@code now}.
+     */
+    private static GeofenceOptions stamp(GeofenceOptions options, long now) {
+        if (options.expirationDuration == RNGeofenceConstants.NEVER_EXPIRE
+                || options.expiresAt != RNGeofenceConstants.NEVER_EXPIRE) {
+            return options;
+        }
+        return options.expiringAt(now + options.expirationDuration);
+    }
+
+    private void putInternal(GeofenceOptions options) {
+        Integer slot = mSlots.get(options.id);
+        if (slot == null) {
+            ensureCapacity(mSize + 1);
+            slot = mSize++;
+            mSlots.put(options.id, slot);
+            mIds.intern(options.id);
+        } else {
+            // Re-adding an id replaces the region, the next selection registers it again or
+            // removes it as its options differ from the registered ones
+            mSuppressedEnters.remove(options.id);
+            mIndex.remove(slot);
+            untag(mRegions[slot]);
+        }
+        tag(options);
+        if (options.expiresAt != RNGeofenceConstants.NEVER_EXPIRE) {
+            mExpiries.schedule(options.id, options.expiresAt);
+        } else {
+            mExpiries.cancel(options.id);
+        }
+        mClustersStale = true;
+        mRegions[slot] = options;
+        mLatitudes[slot] = options.latitude;
+        mLongitudes[slot] = options.longitude;
+        mRadii[slot] = options.radius;
+        mIndex.add(slot);
+        mIndex.setSize(mSize);
+    }
+
+    synchronized void removeAll(Collection<String> ids) {
+        for (String id : ids) {
+            removeInternal(id);
+        }
+        if (mStore != null) {
+            mStore.removeAll(ids);
+            compactStoreIfNeeded();
+        }
+    }
+
+    private boolean removeInternal(String id) {
+        Integer slot = mSlots.remove(id);
+        if (slot == null) {
+            // Possibly registered before the registry kept track of it
+            mPendingRemovals.add(id);
+            return false;
+        }
+        int last = --mSize;
+        untag(mRegions[slot]);
+        mIndex.remove(slot);
+        if (slot != last) {
+            mIndex.move(last, slot);
+            mRegions[slot] = mRegions[last];
+            mLatitudes[slot] = mLatitudes[last];
+            mLongitudes[slot] = mLongitudes[last];
+            mRadii[slot] = mRadii[last];
+            mSlots.put(mRegions[slot].id, slot);
+        }
+        mRegions[last] = null;
+        mIndex.setSize(mSize);
+        mIds.remove(id);
+        mExpiries.cancel(id);
+        mSuppressedEnters.remove(id);
+        mInsideMembers.remove(id);
+        mClustersStale = true;
+        if (mActive.remove(id) != null) {
+            mPendingRemovals.add(id);
+        }
+        return true;
+    }
+
+    private void tag(GeofenceOptions options) {
+        for (String tag : options.tags) {
+            Set<String> ids = mTags.get(tag);
+            if (ids == null) {
+                ids = new LinkedHashSet<>();
+                mTags.put(tag, ids);
+            }
+            ids.add(options.id);
+        }
+    }
+
+    private void untag(GeofenceOptions options) {
+        for (String tag : options.tags) {
+            Set<String> ids = mTags.get(tag);
+            ids.remove(options.id);
+            if (ids.isEmpty()) {
+                mTags.remove(tag);
+            }
+        }
+    }
+
+    /**
+     * Removes every region with the tag and returns their ids.
+     */
+    synchronized List<String> removeByTag(String tag) {
+        List<String> ids = getIdsByTag(tag);
+        if (!ids.isEmpty()) {
+            removeAll(ids);
+        }
+        return ids;
+    }
+
+    synchronized List<String> getIdsByTag(String tag) {
+        Set<String> ids = mTags.get(tag);
+        return ids == null ? new ArrayList<String>() : new ArrayList<>(ids);
+    }
+
+    synchronized int countByTag(String tag) {
+        Set<String> ids = mTags.get(tag);
+        return ids == null ? 0 : ids.size();
+    }
+
+    /**
+     * Removes the regions that expired at or before {@code now} and returns their ids.
+     * Play Services drops them on its own, the removal keeps the registry in line with it.
+     */
+    synchronized List<String> removeExpired(long now) {
+        List<String> expired = new ArrayList<>();
+        mExpiries.advance(now, expired);
+        if (!expired.isEmpty()) {
+            removeAll(expired);
+        }
+        return expired;
+    }
+
+    /**
+     * Wall clock time to call {@link #removeExpired} at, at or before the next expiry, or
+     * {@code Long.MAX_VALUE} if no region expires.
+     */
+    synchronized long nextExpiry() {
+        return mExpiries.nextWakeUp();
+    }
+
+    /**
+     * Replaces the regions with {@code desired}, leaving unchanged regions untouched.
+     */
+    synchronized SyncResult sync(Collection<GeofenceOptions> desired) {
+        Map<String, GeofenceOptions> wanted = new HashMap<>(desired.size() * 2);
+        for (GeofenceOptions options : desired) {
+            wanted.put(options.id, options);
+        }
+
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < mSize; i++) {
+            if (!wanted.containsKey(mRegions[i].id)) {
+                removed.add(mRegions[i].id);
+            }
+        }
+        List<GeofenceOptions> changed = new ArrayList<>();
+        for (GeofenceOptions options : wanted.values()) {
+            Integer slot = mSlots.get(options.id);
+            if (slot == null || !mRegions[slot].equals(options)) {
+                changed.add(options);
+            }
+        }
+
+        if (!removed.isEmpty()) {
+            removeAll(removed);
+        }
+        if (!changed.isEmpty()) {
+            putAll(changed);
+        }
+        return new SyncResult(changed, removed, wanted.size() - changed.size());
+    }
+
+    /**
+     * Returns the removals that have not been applied to Play Services yet, without
+     * selecting again.
+     */
+    synchronized Swap takeRemovals() {
+        List<String> removed = new ArrayList<>(mPendingRemovals);
+        mPendingRemovals.clear();
+        return new Swap(new ArrayList<GeofenceOptions>(), removed, false);
+    }
+
+    synchronized void clear() {
+        mSlots.clear();
+        mActive.clear();
+        mPendingRemovals.clear();
+        mSuppressedEnters.clear();
+        mEnteredClusters.clear();
+        mInsideMembers.clear();
+        mClusters.clear();
+        mClustersStale = true;
+        mTags.clear();
+        mExpiries.clear();
+        mIds.clear();
+        Arrays.fill(mRegions, 0, mSize, null);
+        mSize = 0;
+        mIndex.clear();
+        mRefreshActive = false;
+        mDirty = false;
+        if (mStore != null) {
+            mStore.clear();
+        }
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+
+    synchronized GeofenceOptions get(String id) {
+        Integer slot = mSlots.get(id);
+        return slot == null ? null : mRegions[slot];
+    }
+
+    /**
+     * Handle of a region for compact events, {@link RNGeofenceIdDictionary#NO_HANDLE} if the
+     * id is not registered.
+     */
+    synchronized int getHandle(String id) {
+        return mIds.getHandle(id);
+    }
+
+    /**
+     * Id of a handle, or null if its region was removed.
+     */
+    synchronized String resolveHandle(int handle) {
+        return mIds.resolve(handle);
+    }
+
+    synchronized List<GeofenceOptions> getAll() {
+        return new ArrayList<>(Arrays.asList(mRegions).subList(0, mSize));
+    }
+
+    /**
+     * Returns the regions that contain the point, by their circle or by their polygon.
+     */
+    synchronized List<GeofenceOptions> queryContaining(double latitude, double longitude) {
+        return query(latitude, longitude, true);
+    }
+
+    /**
+     * Returns the regions whose circle contains the point, which is the enclosing circle of
+     * polygon regions, as Play Services monitors them.
+     */
+    synchronized List<GeofenceOptions> queryCircles(double latitude, double longitude) {
+        return query(latitude, longitude, false);
+    }
+
+    private List<GeofenceOptions> query(double latitude, double longitude, boolean polygons) {
+        int count = mIndex.containing(latitude, longitude, mQuerySlots);
+        if (count > mQuerySlots.length) {
+            mQuerySlots = new int[Integer.highestOneBit(count) * 2];
+            mQueryDistances = new double[mQuerySlots.length];
+            count = mIndex.containing(latitude, longitude, mQuerySlots);
+        }
+        List<GeofenceOptions> regions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            GeofenceOptions options = mRegions[mQuerySlots[i]];
+            if (!polygons || options.polygon == null || options.polygon.contains(latitude, longitude)) {
+                regions.add(options);
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Checks a transition reported for the enclosing circle of a polygon region against the
+     * polygon and returns whether it should be delivered. An enter outside of the polygon is
+     * suppressed until {@link #confirmSuppressedEnters} finds the device inside of it, and the
+     * exit of a suppressed enter is suppressed too. A dwell is delivered only inside of the
+     * polygon. Circular regions always pass, except for clustered regions whose transition
+     * was already resolved for their cluster. The location may be NaN if it is unknown.
+     */
+    synchronized boolean confirmTransition(String id, int transition, double latitude, double longitude) {
+        GeofenceOptions options = get(id);
+        if (options == null) {
+            return true;
+        }
+        // Without a location the polygon can't be checked, the circle decides
+        if (options.polygon != null && !Double.isNaN(latitude)
+                && !confirmPolygon(options, transition, latitude, longitude)) {
+            return false;
+        }
+        if (mClusterRadius > 0 && isClustered(mSlots.get(id))) {
+            if (transition == RNGeofenceConstants.TRANSITION_ENTER) {
+                return mInsideMembers.add(id);
+            } else if (transition == RNGeofenceConstants.TRANSITION_EXIT) {
+                return mInsideMembers.remove(id);
+            }
+        }
+        return true;
+    }
+
+    private boolean isClustered(int slot) {
+        updateClusters();
+        return mClusterer.getCluster(slot) != RNGeofenceClusterer.NO_CLUSTER;
+    }
+
+    private boolean confirmPolygon(GeofenceOptions options, int transition, double latitude, double longitude) {
+        if (transition == RNGeofenceConstants.TRANSITION_DWELL) {
+            return options.polygon.contains(latitude, longitude);
+        }
+        if (transition == RNGeofenceConstants.TRANSITION_ENTER) {
+            boolean inside = options.polygon.contains(latitude, longitude);
+            if (inside ? mSuppressedEnters.remove(options.id) : mSuppressedEnters.add(options.id)) {
+                persistSuppressedEnters();
+            }
+            return inside;
+        }
+        // Leaving the circle always leaves the polygon, it only matters whether it was entered
+        if (mSuppressedEnters.remove(options.id)) {
+            persistSuppressedEnters();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether the enter of a polygon region was suppressed and the device is still in its
+     * enclosing circle, so its location has to be checked against the polygon.
+     */
+    synchronized boolean hasSuppressedEnters() {
+        return !mSuppressedEnters.isEmpty();
+    }
+
+    /**
+     * Checks the location against the polygon regions whose enter was suppressed and returns
+     * the ids of those the device is now in. Their enter is delivered by the caller, so their
+     * next exit is delivered too.
+     */
+    synchronized List<String> confirmSuppressedEnters(double latitude, double longitude) {
+        List<String> entered = new ArrayList<>();
+        for (Iterator<String> it = mSuppressedEnters.iterator(); it.hasNext(); ) {
+            String id = it.next();
+            GeofenceOptions options = get(id);
+            if (options == null || options.polygon == null) {
+                it.remove();
+            } else if (options.polygon.contains(latitude, longitude)) {
+                it.remove();
+                entered.add(id);
+            }
+        }
+        for (String id : entered) {
+            // Its enter was suppressed before the cluster could count it as inside
+            if (mClusterRadius > 0 && isClustered(mSlots.get(id))) {
+                mInsideMembers.add(id);
+            }
+        }
+        if (!entered.isEmpty()) {
+            persistSuppressedEnters();
+        }
+        return entered;
+    }
+
+    private void persistSuppressedEnters() {
+        if (mStore != null) {
+            mStore.putSuppressedEnters(mSuppressedEnters);
+        }
+    }
+
+    /**
+     * Resolves an enter or exit of a cluster geofence to the member regions it applies to and
+     * returns their ids. Entering a cluster returns the members whose circle contains the
+     * location and registers all members with the next selection, leaving it returns the
+     * members the device was in. The caller checks the ids with {@link #confirmTransition}.
+     */
+    synchronized List<String> resolveCluster(String clusterId, int transition, double latitude, double longitude) {
+        List<String> ids = new ArrayList<>();
+        if (mClusterRadius > 0) {
+            updateClusters();
+        }
+        Integer cluster = mClusters.get(clusterId);
+        if (transition == RNGeofenceConstants.TRANSITION_EXIT) {
+            mEnteredClusters.remove(clusterId);
+            if (cluster == null) {
+                return ids;
+            }
+            for (int i = 0; i < mClusterer.getMemberCount(cluster); i++) {
+                String id = mRegions[mClusterer.getMember(cluster, i)].id;
+                if (mInsideMembers.contains(id)) {
+                    ids.add(id);
+                }
+            }
+            return ids;
+        }
+        if (transition != RNGeofenceConstants.TRANSITION_ENTER || cluster == null) {
+            return ids;
+        }
+        mEnteredClusters.add(clusterId);
+        if (Double.isNaN(latitude)) {
+            // The members report themselves once they are registered
+            return ids;
+        }
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        for (int i = 0; i < mClusterer.getMemberCount(cluster); i++) {
+            int slot = mClusterer.getMember(cluster, i);
+            if (distanceToEdge(slot, latitude, longitude, cosLatitude) <= 0) {
+                ids.add(mRegions[slot].id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Number of geofences registered with Play Services, including clusters and the refresh
+     * geofence.
+     */
+    synchronized int getActiveCount() {
+        return mActive.size() + (mRefreshActive ? 1 : 0);
+    }
+
+    /**
+     * Returns up to {@code k} regions nearest to the point by distance to their center, nearest
+     * first, and writes the distances in meters to {@code distances}.
+     */
+    synchronized List<GeofenceOptions> nearest(double latitude, double longitude, int k, double[] distances) {
+        if (mQuerySlots.length < k) {
+            mQuerySlots = new int[k];
+            mQueryDistances = new double[k];
+        }
+        int count = mIndex.nearest(latitude, longitude, k, mQuerySlots, mQueryDistances);
+        List<GeofenceOptions> regions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            regions.add(mRegions[mQuerySlots[i]]);
+            distances[i] = mQueryDistances[i];
+        }
+        return regions;
+    }
+
+    /**
+     * Whether selecting the active regions needs the current location of the device.
+     */
+    synchronized boolean needsLocation() {
+        return mSize > mActiveLimit;
+    }
+
+    synchronized boolean hasLastLocation() {
+        return !Double.isNaN(mLastLatitude);
+    }
+
+    synchronized double getLastLatitude() {
+        return mLastLatitude;
+    }
+
+    synchronized double getLastLongitude() {
+        return mLastLongitude;
+    }
+
+    /**
+     * Marks the registered state as unknown after a failed registration, the next
+     * selection then replaces every geofence instead of applying a diff.
+     */
+    synchronized void invalidate() {
+        mDirty = true;
+    }
+
+    /**
+     * Selects the regions that should be registered for a device at the given location
+     * and returns the changes against the currently registered ones. The location is
+     * ignored when every region fits in the active limit, and so is clustering.
+     */
+    synchronized Swap select(double latitude, double longitude) {
+        Map<String, GeofenceOptions> selected = new HashMap<>();
+        GeofenceOptions refresh = null;
+        boolean located = mSize > mActiveLimit;
+
+        if (located) {
+            mLastLatitude = latitude;
+            mLastLongitude = longitude;
+            if (mStore != null) {
+                mStore.putLocation(latitude, longitude);
+            }
+        }
+        if (!located) {
+            // Clusters and their entered members would only take more geofences than the regions
+            for (int i = 0; i < mSize; i++) {
+                selected.put(mRegions[i].id, mRegions[i]);
+            }
+            // Cluster geofences are removed, registering one again reports an enter if inside
+            mEnteredClusters.clear();
+        } else if (mClusterRadius > 0) {
+            refresh = selectClustered(latitude, longitude, selected);
+        } else {
+            computeDistances(latitude, longitude);
+            selectNearest(mOrder, mDistances, mSize, mActiveLimit);
+
+            for (int i = 0; i < mActiveLimit; i++) {
+                GeofenceOptions options = mRegions[mOrder[i]];
+                selected.put(options.id, options);
+            }
+            // The device cannot reach any region left out before it crosses the edge of the
+            // nearest one of them, which makes that distance the refresh radius.
+            float radius = (float) Math.max(mDistances[mOrder[mActiveLimit]], RNGeofenceConstants.MIN_REFRESH_RADIUS);
+            refresh = GeofenceOptions.refresh(latitude, longitude, radius);
+        }
+
+        List<GeofenceOptions> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        boolean reset = mDirty;
+        for (GeofenceOptions options : selected.values()) {
+            // Clusters keep their id when their members change, so options are compared too
+            if (reset || !options.sameGeofence(mActive.get(options.id))) {
+                added.add(options);
+            }
+        }
+        if (!reset) {
+            for (String id : mActive.keySet()) {
+                if (!selected.containsKey(id)) {
+                    removed.add(id);
+                }
+            }
+            for (String id : mPendingRemovals) {
+                if (!selected.containsKey(id)) {
+                    removed.add(id);
+                }
+            }
+        }
+        mPendingRemovals.clear();
+        if (refresh != null) {
+            added.add(refresh);
+        } else if (mRefreshActive && !reset) {
+            removed.add(RNGeofenceConstants.REFRESH_GEOFENCE_ID);
+        }
+
+        mActive.clear();
+        mActive.putAll(selected);
+        mRefreshActive = refresh != null;
+        mDirty = false;
+        return new Swap(added, removed, reset);
+    }
+
+    /**
+     * Selects among the unclustered regions and the clusters, where an entered cluster takes
+     * a slot for itself and one for each of its members. Only used while the regions exceed
+     * the active limit. Returns the refresh geofence, or null if everything fits in it.
+     */
+    private GeofenceOptions selectClustered(double latitude, double longitude,
+                                            Map<String, GeofenceOptions> selected) {
+        updateClusters();
+        int clusters = mClusterer.getCount();
+        // Units are the unclustered regions, by slot, and the clusters, by -1 - cluster
+        if (mUnits.length < mSize + clusters) {
+            mUnits = new int[mRegions.length + clusters];
+        }
+        int units = 0;
+        int cost = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (mClusterer.getCluster(i) == RNGeofenceClusterer.NO_CLUSTER) {
+                mUnits[units++] = i;
+                cost++;
+            }
+        }
+        for (int c = 0; c < clusters; c++) {
+            mUnits[units] = -1 - c;
+            cost += unitCost(units++);
+        }
+
+        if (cost <= mActiveLimit) {
+            for (int u = 0; u < units; u++) {
+                selectUnit(u, selected);
+            }
+            return null;
+        }
+
+        if (mOrder.length < units) {
+            mOrder = new int[mUnits.length];
+            mDistances = new double[mUnits.length];
+        }
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        for (int u = 0; u < units; u++) {
+            int unit = mUnits[u];
+            mDistances[u] = unit >= 0 ?
+                    distanceToEdge(unit, latitude, longitude, cosLatitude) :
+                    distanceToEdge(mClusterOptions[-1 - unit], latitude, longitude, cosLatitude);
+            mOrder[u] = u;
+        }
+        int k = Math.min(units, mActiveLimit);
+        double next = Double.POSITIVE_INFINITY;
+        if (units > k) {
+            selectNearest(mOrder, mDistances, units, k);
+            next = mDistances[mOrder[k]];
+        }
+        sortByDistance(mOrder, mDistances, k);
+
+        int budget = mActiveLimit;
+        for (int i = 0; i < k; i++) {
+            int u = mOrder[i];
+            int unitCost = unitCost(u);
+            if (unitCost > budget) {
+                next = mDistances[u];
+                break;
+            }
+            budget -= unitCost;
+            selectUnit(u, selected);
+        }
+        if (Double.isInfinite(next)) {
+            return null;
+        }
+        return GeofenceOptions.refresh(latitude, longitude,
+                (float) Math.max(next, RNGeofenceConstants.MIN_REFRESH_RADIUS));
+    }
+
+    private int unitCost(int u) {
+        int unit = mUnits[u];
+        if (unit >= 0) {
+            return 1;
+        }
+        int cluster = -1 - unit;
+        return mEnteredClusters.contains(mClusterer.getId(cluster)) ? 1 + mClusterer.getMemberCount(cluster) : 1;
+    }
+
+    private void selectUnit(int u, Map<String, GeofenceOptions> selected) {
+        int unit = mUnits[u];
+        if (unit >= 0) {
+            selected.put(mRegions[unit].id, mRegions[unit]);
+            return;
+        }
+        int cluster = -1 - unit;
+        GeofenceOptions options = mClusterOptions[cluster];
+        selected.put(options.id, options);
+        if (mEnteredClusters.contains(options.id)) {
+            for (int i = 0; i < mClusterer.getMemberCount(cluster); i++) {
+                GeofenceOptions member = mRegions[mClusterer.getMember(cluster, i)];
+                selected.put(member.id, member);
+            }
+        }
+    }
+
+    /**
+     * Clusters the regions again if they changed since the last time.
+     */
+    private void updateClusters() {
+        if (!mClustersStale) {
+            return;
+        }
+        mClusterer.cluster(mRegions, mLatitudes, mLongitudes, mRadii, mSize, mClusterRadius);
+        int clusters = mClusterer.getCount();
+        mClusters.clear();
+        mClusterOptions = new GeofenceOptions[clusters];
+        for (int c = 0; c < clusters; c++) {
+            mClusterOptions[c] = mClusterer.toOptions(c);
+            mClusters.put(mClusterOptions[c].id, c);
+        }
+        mEnteredClusters.retainAll(mClusters.keySet());
+        for (Iterator<String> it = mInsideMembers.iterator(); it.hasNext(); ) {
+            Integer slot = mSlots.get(it.next());
+            if (slot == null || mClusterer.getCluster(slot) == RNGeofenceClusterer.NO_CLUSTER) {
+                it.remove();
+            }
+        }
+        mClustersStale = false;
+    }
+
+    private void compactStoreIfNeeded() {
+        if (mStore.needsCompaction(mSize)) {
+            mStore.compact(Arrays.asList(mRegions).subList(0, mSize),
+                    hasLastLocation() ? new double[]{mLastLatitude, mLastLongitude} : null, mIds, mSuppressedEnters);
+        }
+    }
+
+    private void computeDistances(double latitude, double longitude) {
+        if (mOrder.length < mSize) {
+            mOrder = new int[mRegions.length];
+            mDistances = new double[mRegions.length];
+        }
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        for (int i = 0; i < mSize; i++) {
+            mDistances[i] = distanceToEdge(i, latitude, longitude, cosLatitude);
+            mOrder[i] = i;
+        }
+    }
+
+    /**
+     * Distance in meters from the point to the circle of a region, negative inside of it.
+     */
+    private double distanceToEdge(int slot, double latitude, double longitude, double cosLatitude) {
+        return distanceToEdge(mLatitudes[slot], mLongitudes[slot], mRadii[slot], latitude, longitude, cosLatitude);
+    }
+
+    private static double distanceToEdge(GeofenceOptions options, double latitude, double longitude, double cosLatitude) {
+        return distanceToEdge(options.latitude, options.longitude, options.radius, latitude, longitude, cosLatitude);
+    }
+
+    private static double distanceToEdge(double centerLatitude, double centerLongitude, float radius,
+                                         double latitude, double longitude, double cosLatitude) {
+        double dLatitude = centerLatitude - latitude;
+        double dLongitude = centerLongitude - longitude;
+        if (dLongitude > 180) {
+            dLongitude -= 360;
+        } else if (dLongitude < -180) {
+            dLongitude += 360;
+        }
+        double dx = dLongitude * cosLatitude;
+        return Math.sqrt(dx * dx + dLatitude * dLatitude) * METERS_PER_DEGREE - radius;
+    }
+
+    /**
+     * Sorts the first {@code size} entries of {@code order} by distance, for the few regions
+     * left after {@link #selectNearest}.
+     */
+    private static void sortByDistance(int[] order, double[] distances, int size) {
+        for (int i = 1; i < size; i++) {
+            int entry = order[i];
+            int j = i - 1;
+            while (j >= 0 && distances[order[j]] > distances[entry]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = entry;
+        }
+    }
+
+    /**
+     * Partially orders {@code order} so that its first {@code k} entries point at the
+     * smallest distances and entry {@code k} at the next smallest one.
+     */
+    private static void selectNearest(int[] order, double[] distances, int size, int k) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo < hi) {
+            double pivot = distances[order[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (distances[order[i]] < pivot) {
+                    i++;
+                }
+                while (distances[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i++] = order[j];
+                    order[j--] = tmp;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mRegions.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mRegions.length * 2);
+        mRegions = Arrays.copyOf(mRegions, newCapacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+        mRadii = Arrays.copyOf(mRadii, newCapacity);
+        mIndex.bind(mLatitudes, mLongitudes, mRadii);
+    }
+
+    /**
+     * Regions changed and removed by a sync.
+     */
+    static final class SyncResult {
+        final List<GeofenceOptions> changed;
+        final List<String> removed;
+        final int unchanged;
+
+        private SyncResult(List<GeofenceOptions> changed, List<String> removed, int unchanged) {
+            this.changed = changed;
+            this.removed = removed;
+            this.unchanged = unchanged;
+        }
+    }
+
+    /**
+     * Changes to apply to Play Services after a selection.
+     */
+    static final class Swap {
+        final List<GeofenceOptions> added;
+        final List<String> removed;
+        // When set every geofence of the app has to be removed before adding
+        final boolean reset;
+
+        private Swap(List<GeofenceOptions> added, List<String> removed, boolean reset) {
+            this.added = Collections.unmodifiableList(added);
+            this.removed = Collections.unmodifiableList(removed);
+            this.reset = reset;
+        }
+
+        boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && !reset;
+        }
+    }
+}
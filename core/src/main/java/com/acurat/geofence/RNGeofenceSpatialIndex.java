@@ -0,0 +1,439 @@
+package com.acurat.geofence;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the registry slots. Every region is linked into the cell of its center,
+ * used by nearest queries, and into every cell its circle overlaps, used by point queries.
+ * Cells and links are kept in primitive arrays so queries do not allocate per candidate.
+ */
+final class RNGeofenceSpatialIndex {
+
+    static final double METERS_PER_DEGREE = 111195.0;
+
+    private static final double CELL_DEGREES = 0.01;
+    private static final double CELL_METERS = CELL_DEGREES * METERS_PER_DEGREE;
+    // Regions overlapping more cells than this are kept in a list checked by every point query
+    private static final int MAX_COVERED_CELLS = 64;
+    // Nearest queries scan a wider neighbourhood than this linearly instead
+    private static final int MAX_RINGS = 32;
+
+    private final Grid mCenters = new Grid();
+    private final Grid mCoverage = new Grid();
+    private int[] mLarge = new int[16];
+    private int mLargeSize;
+
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private float[] mRadii;
+    private int mSize;
+
+    // Bounded max-heap of the current nearest candidates
+    private int[] mHeapSlots = new int[16];
+    private double[] mHeapDistances = new double[16];
+    private int mHeapSize;
+
+    /**
+     * Points the index at the coordinate arrays of the registry, which are indexed by slot.
+     */
+    void bind(double[] latitudes, double[] longitudes, float[] radii) {
+        mLatitudes = latitudes;
+        mLongitudes = longitudes;
+        mRadii = radii;
+    }
+
+    void add(int slot) {
+        mCenters.link(cellKey(latCell(mLatitudes[slot]), lngCell(mLongitudes[slot])), slot);
+        if (!forEachCoveredCell(slot, slot, true)) {
+            if (mLargeSize == mLarge.length) {
+                mLarge = Arrays.copyOf(mLarge, mLargeSize * 2);
+            }
+            mLarge[mLargeSize++] = slot;
+        }
+        mSize = Math.max(mSize, slot + 1);
+    }
+
+    void remove(int slot) {
+        relink(slot, -1);
+    }
+
+    /**
+     * Updates the links of a region that moved from slot {@code from} to slot {@code to}.
+     * Must be called before the coordinates of {@code from} are overwritten.
+     */
+    void move(int from, int to) {
+        relink(from, to);
+    }
+
+    void setSize(int size) {
+        mSize = size;
+    }
+
+    void clear() {
+        mCenters.clear();
+        mCoverage.clear();
+        mLargeSize = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Writes the slots of the regions containing the point to {@code out} and returns how
+     * many were found, growing {@code out} is left to the caller through the return value
+     * exceeding its length.
+     */
+    int containing(double latitude, double longitude, int[] out) {
+        int count = 0;
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        long key = cellKey(latCell(latitude), lngCell(longitude));
+        for (int e = mCoverage.head(key); e >= 0; e = mCoverage.next[e]) {
+            int slot = mCoverage.slots[e];
+            if (distance(latitude, longitude, cosLatitude, slot) <= mRadii[slot]) {
+                if (count < out.length) {
+                    out[count] = slot;
+                }
+                count++;
+            }
+        }
+        for (int i = 0; i < mLargeSize; i++) {
+            int slot = mLarge[i];
+            if (distance(latitude, longitude, cosLatitude, slot) <= mRadii[slot]) {
+                if (count < out.length) {
+                    out[count] = slot;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the slots of the {@code k} regions whose centers are nearest to the point to
+     * {@code slots}, nearest first, with their distances in meters, and returns how many
+     * were found.
+     */
+    int nearest(double latitude, double longitude, int k, int[] slots, double[] distances) {
+        if (k <= 0 || mSize == 0) {
+            return 0;
+        }
+        if (mHeapSlots.length < k) {
+            mHeapSlots = new int[k];
+            mHeapDistances = new double[k];
+        }
+        mHeapSize = 0;
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        int latCell = latCell(latitude);
+        int lngCell = lngCell(longitude);
+        // Cells are narrower in meters along the longitude away from the equator
+        double ringMeters = CELL_METERS * Math.min(1, Math.cos(Math.toRadians(Math.min(89, Math.abs(latitude) + CELL_DEGREES * MAX_RINGS))));
+
+        boolean complete = false;
+        for (int ring = 0; ring <= MAX_RINGS; ring++) {
+            for (int dLat = -ring; dLat <= ring; dLat++) {
+                boolean edgeRow = dLat == -ring || dLat == ring;
+                for (int dLng = -ring; dLng <= ring; dLng += edgeRow ? 1 : 2 * ring) {
+                    long key = cellKey(latCell + dLat, lngCell + dLng);
+                    for (int e = mCenters.head(key); e >= 0; e = mCenters.next[e]) {
+                        int slot = mCenters.slots[e];
+                        offer(slot, distance(latitude, longitude, cosLatitude, slot), k);
+                    }
+                    if (ring == 0) {
+                        break;
+                    }
+                }
+            }
+            // Anything not scanned yet is at least this far away
+            if (mHeapSize == k && mHeapDistances[0] <= ring * ringMeters) {
+                complete = true;
+                break;
+            }
+        }
+        if (!complete) {
+            mHeapSize = 0;
+            for (int slot = 0; slot < mSize; slot++) {
+                offer(slot, distance(latitude, longitude, cosLatitude, slot), k);
+            }
+        }
+
+        int count = mHeapSize;
+        for (int i = count - 1; i >= 0; i--) {
+            slots[i] = mHeapSlots[0];
+            distances[i] = mHeapDistances[0];
+            popHeap();
+        }
+        return count;
+    }
+
+    private double distance(double latitude, double longitude, double cosLatitude, int slot) {
+        double dLatitude = mLatitudes[slot] - latitude;
+        double dLongitude = mLongitudes[slot] - longitude;
+        if (dLongitude > 180) {
+            dLongitude -= 360;
+        } else if (dLongitude < -180) {
+            dLongitude += 360;
+        }
+        double dx = dLongitude * cosLatitude;
+        return Math.sqrt(dx * dx + dLatitude * dLatitude) * METERS_PER_DEGREE;
+    }
+
+    private void offer(int slot, double distance, int k) {
+        if (mHeapSize < k) {
+            int i = mHeapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (mHeapDistances[parent] >= distance) {
+                    break;
+                }
+                mHeapSlots[i] = mHeapSlots[parent];
+                mHeapDistances[i] = mHeapDistances[parent];
+                i = parent;
+            }
+            mHeapSlots[i] = slot;
+            mHeapDistances[i] = distance;
+        } else if (distance < mHeapDistances[0]) {
+            mHeapSlots[0] = slot;
+            mHeapDistances[0] = distance;
+            siftDown(0);
+        }
+    }
+
+    private void popHeap() {
+        mHeapSize--;
+        if (mHeapSize > 0) {
+            mHeapSlots[0] = mHeapSlots[mHeapSize];
+            mHeapDistances[0] = mHeapDistances[mHeapSize];
+            siftDown(0);
+        }
+    }
+
+    private void siftDown(int i) {
+        int slot = mHeapSlots[i];
+        double distance = mHeapDistances[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= mHeapSize) {
+                break;
+            }
+            if (child + 1 < mHeapSize && mHeapDistances[child + 1] > mHeapDistances[child]) {
+                child++;
+            }
+            if (mHeapDistances[child] <= distance) {
+                break;
+            }
+            mHeapSlots[i] = mHeapSlots[child];
+            mHeapDistances[i] = mHeapDistances[child];
+            i = child;
+        }
+        mHeapSlots[i] = slot;
+        mHeapDistances[i] = distance;
+    }
+
+    /**
+     * Replaces {@code from} with {@code to} in every link of the region, or unlinks it when
+     * {@code to} is negative.
+     */
+    private void relink(int from, int to) {
+        mCenters.relink(cellKey(latCell(mLatitudes[from]), lngCell(mLongitudes[from])), from, to);
+        if (!forEachCoveredCell(from, to, false)) {
+            for (int i = 0; i < mLargeSize; i++) {
+                if (mLarge[i] == from) {
+                    if (to >= 0) {
+                        mLarge[i] = to;
+                    } else {
+                        mLarge[i] = mLarge[--mLargeSize];
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Links {@code slot} into, or relinks it to {@code to} in, every cell the circle overlaps.
+     * Returns false without touching the grid when the region covers too many cells.
+     */
+    private boolean forEachCoveredCell(int slot, int to, boolean link) {
+        double latitude = mLatitudes[slot];
+        double longitude = mLongitudes[slot];
+        double latDegrees = mRadii[slot] / METERS_PER_DEGREE;
+        double cos = Math.max(Math.cos(Math.toRadians(Math.min(89, Math.abs(latitude) + latDegrees))), 0.01);
+        double lngDegrees = latDegrees / cos;
+        int minLat = latCell(latitude - latDegrees);
+        int maxLat = latCell(latitude + latDegrees);
+        int minLng = lngCell(longitude - lngDegrees);
+        int maxLng = lngCell(longitude + lngDegrees);
+        if ((long) (maxLat - minLat + 1) * (maxLng - minLng + 1) > MAX_COVERED_CELLS) {
+            return false;
+        }
+        for (int lat = minLat; lat <= maxLat; lat++) {
+            for (int lng = minLng; lng <= maxLng; lng++) {
+                if (link) {
+                    mCoverage.link(cellKey(lat, lng), slot);
+                } else {
+                    mCoverage.relink(cellKey(lat, lng), slot, to);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int latCell(double latitude) {
+        return (int) Math.floor((latitude + 90) / CELL_DEGREES);
+    }
+
+    private static int lngCell(double longitude) {
+        return (int) Math.floor((longitude + 180) / CELL_DEGREES);
+    }
+
+    private static long cellKey(int latCell, int lngCell) {
+        return ((long) latCell << 32) | (lngCell & 0xffffffffL);
+    }
+
+    /**
+     * Open addressing map from cell keys to singly linked lists of slots.
+     */
+    private static final class Grid {
+
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] keys;
+        private int[] heads;
+        private int cells;
+
+        private int[] slots = new int[64];
+        private int[] next = new int[64];
+        private int entries;
+        private int free = -1;
+
+        Grid() {
+            allocate(64);
+        }
+
+        int head(long key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return heads[i];
+                }
+                if (keys[i] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        void link(long key, int slot) {
+            if ((cells + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+            int entry;
+            if (free >= 0) {
+                entry = free;
+                free = next[entry];
+            } else {
+                if (entries == slots.length) {
+                    slots = Arrays.copyOf(slots, entries * 2);
+                    next = Arrays.copyOf(next, entries * 2);
+                }
+                entry = entries++;
+            }
+            int index = indexOf(key);
+            if (keys[index] == EMPTY) {
+                keys[index] = key;
+                heads[index] = -1;
+                cells++;
+            }
+            slots[entry] = slot;
+            next[entry] = heads[index];
+            heads[index] = entry;
+        }
+
+        void relink(long key, int from, int to) {
+            int index = indexOf(key);
+            if (keys[index] == EMPTY) {
+                return;
+            }
+            int previous = -1;
+            for (int e = heads[index]; e >= 0; previous = e, e = next[e]) {
+                if (slots[e] != from) {
+                    continue;
+                }
+                if (to >= 0) {
+                    slots[e] = to;
+                } else {
+                    if (previous < 0) {
+                        heads[index] = next[e];
+                    } else {
+                        next[previous] = next[e];
+                    }
+                    next[e] = free;
+                    free = e;
+                    // Emptied cells are dropped, so the cells of moving regions do not pile up
+                    if (heads[index] < 0) {
+                        delete(index);
+                    }
+                }
+                return;
+            }
+        }
+
+        void clear() {
+            allocate(64);
+            entries = 0;
+            free = -1;
+        }
+
+        private int indexOf(long key) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != EMPTY && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        /**
+         * Removes the cell at {@code index}, shifting back the cells after it in the probe
+         * sequence so that they are still found without tombstones.
+         */
+        private void delete(int index) {
+            int mask = keys.length - 1;
+            int hole = index;
+            for (int i = (index + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+                int home = hash(keys[i]) & mask;
+                // The cell can fill the hole if the hole lies between its home and its position
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    heads[hole] = heads[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = EMPTY;
+            cells--;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldHeads = heads;
+            allocate(capacity);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int index = indexOf(oldKeys[i]);
+                    keys[index] = oldKeys[i];
+                    heads[index] = oldHeads[i];
+                    cells++;
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            heads = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            cells = 0;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
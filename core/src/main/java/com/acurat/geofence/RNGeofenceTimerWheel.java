@@ -0,0 +1,206 @@
+package com.acurat.geofence;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hashed timing wheel keyed by region id. Timers are kept in primitive arrays and linked
+ * into the slot of their deadline tick, so scheduling and cancelling are constant time and
+ * a tick only visits the timers of one slot. Deadlines further away than one revolution
+ * stay in their slot until the wheel comes around to them again.
+ * <p>
+ * The wheel has no clock of its own, the owner calls {@link #advance} with the current
+ * time. It is not thread safe.
+ */
+final class RNGeofenceTimerWheel {
+
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long mTick;
+    private final int[] mHeads;
+    private final Map<String, Integer> mHandles = new HashMap<>();
+
+    private String[] mKeys = new String[INITIAL_CAPACITY];
+    private long[] mDeadlines = new long[INITIAL_CAPACITY];
+    private int[] mNext = new int[INITIAL_CAPACITY];
+    private int[] mPrevious = new int[INITIAL_CAPACITY];
+    private int[] mSlots = new int[INITIAL_CAPACITY];
+    private int mFree = NONE;
+    private int mUsed;
+
+    // Last tick whose timers have all expired
+    private long mCurrentTick = Long.MIN_VALUE;
+
+    /**
+     * @param tick  resolution of the wheel in milliseconds
+     * @param slots number of slots of one revolution, rounded up to a power of two
+     */
+    RNGeofenceTimerWheel(long tick, int slots) {
+        mTick = Math.max(1, tick);
+        mHeads = new int[Integer.highestOneBit(Math.max(2, slots) - 1) << 1];
+        Arrays.fill(mHeads, NONE);
+    }
+
+    int size() {
+        return mHandles.size();
+    }
+
+    boolean isScheduled(String key) {
+        return mHandles.containsKey(key);
+    }
+
+    /**
+     * Schedules a timer for {@code key}, replacing the one it already had.
+     */
+    void schedule(String key, long deadline) {
+        Integer handle = mHandles.get(key);
+        int timer;
+        if (handle != null) {
+            timer = handle;
+            unlink(timer);
+        } else {
+            timer = allocate();
+            mKeys[timer] = key;
+            mHandles.put(key, timer);
+        }
+        mDeadlines[timer] = deadline;
+        // A deadline in a tick that was already processed fires on the next advance
+        long tick = Math.max(deadline / mTick, mCurrentTick == Long.MIN_VALUE ? Long.MIN_VALUE : mCurrentTick + 1);
+        link(timer, (int) (tick & (mHeads.length - 1)));
+    }
+
+    boolean cancel(String key) {
+        Integer handle = mHandles.remove(key);
+        if (handle == null) {
+            return false;
+        }
+        unlink(handle);
+        release(handle);
+        return true;
+    }
+
+    void clear() {
+        mHandles.clear();
+        Arrays.fill(mHeads, NONE);
+        Arrays.fill(mKeys, 0, mUsed, null);
+        mFree = NONE;
+        mUsed = 0;
+    }
+
+    /**
+     * Removes the timers whose deadline is at or before {@code now} and adds their keys to
+     * {@code expired}, earliest tick first. Returns the number of expired timers.
+     */
+    int advance(long now, List<String> expired) {
+        long target = now / mTick;
+        if (mCurrentTick == Long.MIN_VALUE || target - mCurrentTick > mHeads.length) {
+            // Every slot is visited once when the wheel falls a revolution or more behind
+            mCurrentTick = target - mHeads.length;
+        }
+        int count = 0;
+        while (mCurrentTick < target && !mHandles.isEmpty()) {
+            mCurrentTick++;
+            int timer = mHeads[(int) (mCurrentTick & (mHeads.length - 1))];
+            while (timer != NONE) {
+                int next = mNext[timer];
+                if (mDeadlines[timer] <= now) {
+                    expired.add(mKeys[timer]);
+                    mHandles.remove(mKeys[timer]);
+                    unlink(timer);
+                    release(timer);
+                    count++;
+                }
+                timer = next;
+            }
+        }
+        // The current tick is visited again, its later timers are not due yet
+        mCurrentTick = target - 1;
+        return count;
+    }
+
+    /**
+     * Returns the earliest deadline of the scheduled timers, or {@code Long.MAX_VALUE} when
+     * there are none. This scans every timer, it is meant for scheduling a wake up.
+     */
+    long nextDeadline() {
+        long deadline = Long.MAX_VALUE;
+        for (int timer : mHandles.values()) {
+            deadline = Math.min(deadline, mDeadlines[timer]);
+        }
+        return deadline;
+    }
+
+    /**
+     * Returns a time at or before the earliest deadline to wake up at, visiting the slots of
+     * one revolution instead of every timer. When no timer is due within the revolution, the
+     * end of it is returned, so timers further away cost one wake up per revolution.
+     */
+    long nextWakeUp() {
+        if (mHandles.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        if (mCurrentTick == Long.MIN_VALUE) {
+            return nextDeadline();
+        }
+        for (long tick = mCurrentTick + 1; tick <= mCurrentTick + mHeads.length; tick++) {
+            long deadline = Long.MAX_VALUE;
+            for (int timer = mHeads[(int) (tick & (mHeads.length - 1))]; timer != NONE; timer = mNext[timer]) {
+                // Timers of later revolutions share the slot
+                if (mDeadlines[timer] < (tick + 1) * mTick) {
+                    deadline = Math.min(deadline, mDeadlines[timer]);
+                }
+            }
+            if (deadline != Long.MAX_VALUE) {
+                return deadline;
+            }
+        }
+        return (mCurrentTick + mHeads.length) * mTick;
+    }
+
+    private int allocate() {
+        if (mFree != NONE) {
+            int timer = mFree;
+            mFree = mNext[timer];
+            return timer;
+        }
+        if (mUsed == mKeys.length) {
+            int capacity = mKeys.length * 2;
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mDeadlines = Arrays.copyOf(mDeadlines, capacity);
+            mNext = Arrays.copyOf(mNext, capacity);
+            mPrevious = Arrays.copyOf(mPrevious, capacity);
+            mSlots = Arrays.copyOf(mSlots, capacity);
+        }
+        return mUsed++;
+    }
+
+    private void release(int timer) {
+        mKeys[timer] = null;
+        mNext[timer] = mFree;
+        mFree = timer;
+    }
+
+    private void link(int timer, int slot) {
+        mSlots[timer] = slot;
+        mPrevious[timer] = NONE;
+        mNext[timer] = mHeads[slot];
+        if (mHeads[slot] != NONE) {
+            mPrevious[mHeads[slot]] = timer;
+        }
+        mHeads[slot] = timer;
+    }
+
+    private void unlink(int timer) {
+        if (mPrevious[timer] != NONE) {
+            mNext[mPrevious[timer]] = mNext[timer];
+        } else {
+            mHeads[mSlots[timer]] = mNext[timer];
+        }
+        if (mNext[timer] != NONE) {
+            mPrevious[mNext[timer]] = mPrevious[timer];
+        }
+    }
+}
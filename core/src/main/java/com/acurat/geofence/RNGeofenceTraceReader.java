@@ -0,0 +1,338 @@
+package com.acurat.geofence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams the locations of a recorded trace into a {@link RNGeofenceTraceReplay}, reading the
+ * bytes in place without a string per line. Two formats are accepted.
+ * <p>
+ * GPX: every {@code trkpt} with its {@code lat} and {@code lon} attributes and {@code time}.
+ * <p>
+ * CSV: one {@code timestamp,latitude,longitude} line per location, further columns are
+ * ignored and a first line starting with a letter is skipped as header. The timestamp is
+ * either milliseconds since the epoch or an ISO 8601 date and time.
+ */
+final class RNGeofenceTraceReader {
+
+    private static final byte[] TRKPT = "<trkpt".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRKPT_END = "</trkpt>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAT = "lat=".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LON = "lon=".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TIME = "<time>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TIME_END = "</time>".getBytes(StandardCharsets.US_ASCII);
+
+    // Integers up to 15 digits and these powers of ten are exact doubles, so one division
+    // gives the correctly rounded value
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private RNGeofenceTraceReader() {
+    }
+
+    static void read(File file, RNGeofenceTraceReplay replay) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            FileChannel channel = in.getChannel();
+            read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), replay);
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of the buffer, throwing an {@code IllegalArgumentException} for
+     * the first location that can't be read.
+     */
+    static void read(ByteBuffer trace, RNGeofenceTraceReplay replay) {
+        int start = trace.position();
+        int end = trace.limit();
+        while (start < end && trace.get(start) != '<' && Character.isWhitespace(trace.get(start))) {
+            start++;
+        }
+        if (start < end && trace.get(start) == '<') {
+            readGpx(trace, start, end, replay);
+        } else {
+            readCsv(trace, start, end, replay);
+        }
+        trace.position(end);
+    }
+
+    private static void readGpx(ByteBuffer trace, int position, int end, RNGeofenceTraceReplay replay) {
+        while ((position = indexOf(trace, TRKPT, position, end)) >= 0) {
+            position = readGpxPoint(trace, position, end, replay);
+        }
+    }
+
+    /**
+     * Reads the point starting at {@code position} and returns the end of it.
+     */
+    private static int readGpxPoint(ByteBuffer trace, int position, int end, RNGeofenceTraceReplay replay) {
+        int tagEnd = indexOf(trace, (byte) '>', position, end);
+        if (tagEnd < 0) {
+            throw new IllegalArgumentException("Unterminated trkpt at byte " + position);
+        }
+        double latitude = parseAttribute(trace, LAT, position, tagEnd);
+        double longitude = parseAttribute(trace, LON, position, tagEnd);
+        int pointEnd = trace.get(tagEnd - 1) == '/' ? tagEnd : indexOf(trace, TRKPT_END, tagEnd, end);
+        int time = pointEnd < 0 ? -1 : indexOf(trace, TIME, tagEnd, pointEnd);
+        if (time < 0) {
+            throw new IllegalArgumentException("Location without time at byte " + position);
+        }
+        time += TIME.length;
+        int timeEnd = indexOf(trace, TIME_END, time, pointEnd);
+        if (timeEnd < 0) {
+            throw new IllegalArgumentException("Unterminated time at byte " + time);
+        }
+        replay.onLocation(parseIsoTime(trace, time, timeEnd), latitude, longitude);
+        return pointEnd;
+    }
+
+    private static double parseAttribute(ByteBuffer trace, byte[] name, int start, int end) {
+        int position = start;
+        while ((position = indexOf(trace, name, position, end)) >= 0) {
+            // Skips names that only end with the attribute name
+            byte before = trace.get(position - 1);
+            position += name.length;
+            if (before == ' ' || before == '\t' || before == '\n' || before == '\r') {
+                byte quote = trace.get(position);
+                int valueEnd = indexOf(trace, quote, position + 1, end);
+                if ((quote != '"' && quote != '\'') || valueEnd < 0) {
+                    break;
+                }
+                return parseDouble(trace, position + 1, valueEnd);
+            }
+        }
+        throw new IllegalArgumentException("Location without " + new String(name, StandardCharsets.US_ASCII)
+                + " at byte " + start);
+    }
+
+    private static void readCsv(ByteBuffer trace, int position, int end, RNGeofenceTraceReplay replay) {
+        int[] fields = new int[4];
+        int line = 1;
+        if (position < end && Character.isLetter(trace.get(position))) {
+            position = lineEnd(trace, position, end) + 1;
+            line++;
+        }
+        for (; position < end; line++) {
+            position = readCsvLine(trace, position, end, line, fields, replay);
+        }
+    }
+
+    /**
+     * Reads one line and returns the start of the next. Kept out of the loop so that it is
+     * compiled early instead of only once the loop over a long trace gets replaced on stack.
+     */
+    private static int readCsvLine(ByteBuffer trace, int position, int end, int line, int[] fields,
+                                   RNGeofenceTraceReplay replay) {
+        int lineEnd = lineEnd(trace, position, end);
+        int contentEnd = lineEnd;
+        if (contentEnd > position && trace.get(contentEnd - 1) == '\r') {
+            contentEnd--;
+        }
+        if (contentEnd == position) {
+            return lineEnd + 1;
+        }
+        // Start of the first three fields and end of the third
+        fields[0] = position;
+        int count = 1;
+        for (int i = position; i < contentEnd && count < 4; i++) {
+            if (trace.get(i) == ',') {
+                fields[count++] = i + 1;
+            }
+        }
+        if (count < 3) {
+            throw new IllegalArgumentException("Line " + line + " needs timestamp, latitude and longitude");
+        }
+        if (count == 3) {
+            fields[3] = contentEnd + 1;
+        }
+        try {
+            replay.onLocation(parseTimestamp(trace, fields[0], fields[1] - 1),
+                    parseDouble(trace, fields[1], fields[2] - 1),
+                    parseDouble(trace, fields[2], fields[3] - 1));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Line " + line + ": " + e.getMessage(), e);
+        }
+        return lineEnd + 1;
+    }
+
+    private static int lineEnd(ByteBuffer trace, int position, int end) {
+        int lineEnd = indexOf(trace, (byte) '\n', position, end);
+        return lineEnd < 0 ? end : lineEnd;
+    }
+
+    private static long parseTimestamp(ByteBuffer trace, int start, int end) {
+        boolean digits = true;
+        for (int i = start; i < end && digits; i++) {
+            byte b = trace.get(i);
+            digits = b >= '0' && b <= '9';
+        }
+        if (!digits || end == start) {
+            return parseIsoTime(trace, start, end);
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (trace.get(i) - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Parses {@code yyyy-MM-ddTHH:mm:ss}, optionally followed by a fraction of a second and by
+     * {@code Z} or an offset, into milliseconds since the epoch. Without an offset it is UTC.
+     */
+    static long parseIsoTime(ByteBuffer trace, int start, int end) {
+        while (start < end && trace.get(start) == ' ') {
+            start++;
+        }
+        while (end > start && trace.get(end - 1) == ' ') {
+            end--;
+        }
+        if (end - start < 19 || trace.get(start + 4) != '-' || trace.get(start + 7) != '-'
+                || (trace.get(start + 10) != 'T' && trace.get(start + 10) != ' ')
+                || trace.get(start + 13) != ':' || trace.get(start + 16) != ':') {
+            throw new IllegalArgumentException("Not a date and time: " + string(trace, start, end));
+        }
+        long days = daysFromCivil(digits(trace, start, 4), digits(trace, start + 5, 2), digits(trace, start + 8, 2));
+        long millis = (((days * 24 + digits(trace, start + 11, 2)) * 60 + digits(trace, start + 14, 2)) * 60
+                + digits(trace, start + 17, 2)) * 1000;
+        int position = start + 19;
+        if (position < end && trace.get(position) == '.') {
+            int scale = 100;
+            for (position++; position < end && isDigit(trace.get(position)); position++) {
+                millis += (trace.get(position) - '0') * scale;
+                scale /= 10;
+            }
+        }
+        if (position < end && trace.get(position) != 'Z') {
+            byte sign = trace.get(position);
+            if ((sign != '+' && sign != '-') || end - position < 6 || trace.get(position + 3) != ':') {
+                throw new IllegalArgumentException("Not a time zone offset: " + string(trace, position, end));
+            }
+            long offset = (digits(trace, position + 1, 2) * 60 + digits(trace, position + 4, 2)) * 60000L;
+            millis += sign == '+' ? -offset : offset;
+        }
+        return millis;
+    }
+
+    /**
+     * Days since 1970-01-01 of a date in the proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(long year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int digits(ByteBuffer trace, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            byte b = trace.get(i);
+            if (!isDigit(b)) {
+                throw new IllegalArgumentException("Not a digit in " + string(trace, start, start + count));
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Parses a plain decimal without creating a string, falling back to
+     * {@code Double.parseDouble} for exponents and long mantissas.
+     */
+    static double parseDouble(ByteBuffer trace, int start, int end) {
+        while (start < end && trace.get(start) == ' ') {
+            start++;
+        }
+        while (end > start && trace.get(end - 1) == ' ') {
+            end--;
+        }
+        int position = start;
+        boolean negative = false;
+        if (position < end && (trace.get(position) == '-' || trace.get(position) == '+')) {
+            negative = trace.get(position) == '-';
+            position++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; position < end; position++) {
+            byte b = trace.get(position);
+            if (isDigit(b)) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (b == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                break;
+            }
+        }
+        if (position < end || digits > MAX_FAST_DIGITS) {
+            return parseSlow(trace, start, end);
+        }
+        if (digits == 0) {
+            throw new IllegalArgumentException("Not a number: " + string(trace, start, end));
+        }
+        double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private static double parseSlow(ByteBuffer trace, int start, int end) {
+        String value = string(trace, start, end);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value, e);
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static String string(ByteBuffer trace, int start, int end) {
+        byte[] bytes = new byte[Math.max(0, end - start)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = trace.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(ByteBuffer trace, byte value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (trace.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(ByteBuffer trace, byte[] pattern, int start, int end) {
+        byte first = pattern[0];
+        int last = end - pattern.length;
+        outer:
+        for (int i = start; i <= last; i++) {
+            if (trace.get(i) != first) {
+                continue;
+            }
+            for (int j = 1; j < pattern.length; j++) {
+                if (trace.get(i + j) != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
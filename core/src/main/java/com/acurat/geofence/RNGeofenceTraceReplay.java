@@ -0,0 +1,248 @@
+package com.acurat.geofence;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replays a recorded location trace against a set of regions and reports the transitions the
+ * broadcast receiver would deliver for it: enters and exits with the initial enter trigger,
+ * dwells timed from the enter, the notify settings of every region and optionally flap
+ * suppression. Polygon regions go the same way as on a device, the transitions of their
+ * enclosing circle are checked with {@link RNGeofenceRegistry#confirmTransition} and enters
+ * suppressed outside of the polygon are resolved by the location watch. Time is taken from the
+ * trace, so dwell and hold deadlines are resolved at the next location after them, or by
+ * {@link #finish()} at the end of the trace.
+ * <p>
+ * Differences to a device are deliberate: locations are exact, so there is no Play Services
+ * sampling or radius tolerance, the location watch sees every location of the trace, and
+ * every region is monitored instead of the active ones. Not thread safe.
+ */
+final class RNGeofenceTraceReplay {
+
+    interface Listener {
+        void onTransition(RNGeofenceDataObject event);
+    }
+
+    private static final long DWELL_TICK = 1000;
+    private static final int DWELL_SLOTS = 512;
+
+    private final RNGeofenceRegistry mRegistry = new RNGeofenceRegistry();
+    private final RNGeofenceDebouncer mDebouncer = new RNGeofenceDebouncer();
+    private final RNGeofenceTimerWheel mDwellTimers = new RNGeofenceTimerWheel(DWELL_TICK, DWELL_SLOTS);
+    private final Listener mListener;
+
+    // Regions whose circle contains the previous and the current location
+    private Set<String> mInside = new HashSet<>();
+    private Set<String> mContaining = new HashSet<>();
+    private final List<String> mEntered = new ArrayList<>();
+    private final List<String> mExited = new ArrayList<>();
+    private final List<String> mExpired = new ArrayList<>();
+    private final List<Integer> mHeldTransitions = new ArrayList<>();
+    private long mTimestamp = Long.MIN_VALUE;
+    private long mLocations;
+    private long mEvents;
+
+    RNGeofenceTraceReplay(Collection<GeofenceOptions> regions, Listener listener) {
+        mRegistry.putAll(regions);
+        mListener = listener;
+    }
+
+    /**
+     * Applies the same flap suppression as the {@code flapHoldTime} and {@code flapMargin}
+     * initialization parameters.
+     */
+    void setFlapSuppression(long holdTime, float margin) {
+        mDebouncer.configure(holdTime, margin);
+    }
+
+    /**
+     * Moves to the next location of the trace, which must not be older than the previous one.
+     */
+    void onLocation(long timestamp, double latitude, double longitude) {
+        if (timestamp < mTimestamp) {
+            throw new IllegalArgumentException("Trace goes back in time at " + timestamp);
+        }
+        deliverDue(timestamp);
+        mTimestamp = timestamp;
+        mLocations++;
+
+        mContaining.clear();
+        for (GeofenceOptions options : mRegistry.queryCircles(latitude, longitude)) {
+            mContaining.add(options.id);
+        }
+        for (String id : mInside) {
+            if (!mContaining.contains(id)
+                    && mRegistry.confirmTransition(id, RNGeofenceConstants.TRANSITION_EXIT, latitude, longitude)) {
+                transition(id, RNGeofenceConstants.TRANSITION_EXIT, latitude, longitude, mExited);
+            }
+        }
+        for (String id : mContaining) {
+            if (!mInside.contains(id)
+                    && mRegistry.confirmTransition(id, RNGeofenceConstants.TRANSITION_ENTER, latitude, longitude)) {
+                transition(id, RNGeofenceConstants.TRANSITION_ENTER, latitude, longitude, mEntered);
+            }
+        }
+        // Same as the location updates of RNGeofencePolygonWatcher
+        if (mRegistry.hasSuppressedEnters()) {
+            for (String id : mRegistry.confirmSuppressedEnters(latitude, longitude)) {
+                transition(id, RNGeofenceConstants.TRANSITION_ENTER, latitude, longitude, mEntered);
+            }
+        }
+        Set<String> inside = mInside;
+        mInside = mContaining;
+        mContaining = inside;
+
+        emit(RNGeofenceConstants.TRANSITION_EXIT, mExited, timestamp);
+        emit(RNGeofenceConstants.TRANSITION_ENTER, mEntered, timestamp);
+    }
+
+    /**
+     * Delivers the dwells and held transitions still pending at the end of the trace, as if
+     * the device stayed at the last location.
+     */
+    void finish() {
+        long next;
+        while ((next = Math.min(mDwellTimers.nextDeadline(), mDebouncer.nextDeadline())) != Long.MAX_VALUE) {
+            deliverDue(next);
+        }
+    }
+
+    long getLocations() {
+        return mLocations;
+    }
+
+    long getEvents() {
+        return mEvents;
+    }
+
+    private void transition(String id, int transition, double latitude, double longitude, List<String> delivered) {
+        GeofenceOptions options = mRegistry.get(id);
+        boolean dwell = (options.transitionTypes & RNGeofenceConstants.TRANSITION_DWELL) != 0;
+        if (transition == RNGeofenceConstants.TRANSITION_EXIT) {
+            mDwellTimers.cancel(id);
+        } else if (dwell) {
+            mDwellTimers.schedule(id, mTimestamp + options.loiteringDelay);
+        }
+        if (mDebouncer.onTransition(id, transition, mTimestamp,
+                RNGeofenceDebouncer.distance(options, latitude, longitude), options.radius)
+                && (options.transitionTypes & transition) != 0) {
+            delivered.add(id);
+        }
+    }
+
+    private void deliverDue(long timestamp) {
+        mExpired.clear();
+        mDwellTimers.advance(timestamp, mExpired);
+        emit(RNGeofenceConstants.TRANSITION_DWELL, mExpired, timestamp);
+
+        mExpired.clear();
+        mHeldTransitions.clear();
+        mDebouncer.advance(timestamp, mExpired, mHeldTransitions);
+        for (int i = 0; i < mExpired.size(); i++) {
+            String id = mExpired.get(i);
+            int transition = mHeldTransitions.get(i);
+            if ((mRegistry.get(id).transitionTypes & transition) != 0) {
+                (transition == RNGeofenceConstants.TRANSITION_ENTER ? mEntered : mExited).add(id);
+            }
+        }
+        emit(RNGeofenceConstants.TRANSITION_EXIT, mExited, timestamp);
+        emit(RNGeofenceConstants.TRANSITION_ENTER, mEntered, timestamp);
+    }
+
+    private void emit(int transition, List<String> requestIds, long timestamp) {
+        if (requestIds.isEmpty()) {
+            return;
+        }
+        mEvents++;
+        mListener.onTransition(new RNGeofenceDataObject(transition,
+                requestIds.toArray(new String[requestIds.size()]), timestamp));
+        requestIds.clear();
+    }
+
+    /**
+     * Same payload as the events emitted to JS, on a single line.
+     */
+    static String toJson(RNGeofenceDataObject event) {
+        StringBuilder json = new StringBuilder(64).append("{\"ids\":[");
+        String[] ids = event.getRequestIds();
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendString(json, ids[i]);
+        }
+        json.append("],\"transitionType\":");
+        appendString(json, event.getTransitionType());
+        return json.append(",\"timestamp\":").append(event.getTimestamp()).append('}').toString();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Prints the events of a trace as JSON lines, for checking region sets on a plain JVM:
+     * {@code [--flap-hold-time=ms] [--flap-margin=m] <regions> <trace>}, where the regions are
+     * a packed or CSV file of {@link RNGeofenceImporter} and the trace a GPX or CSV file of
+     * {@link RNGeofenceTraceReader}.
+     */
+    public static void main(String[] args) throws IOException {
+        long holdTime = 0;
+        float margin = 0;
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--flap-hold-time=")) {
+                holdTime = Long.parseLong(arg.substring("--flap-hold-time=".length()));
+            } else if (arg.startsWith("--flap-margin=")) {
+                margin = Float.parseFloat(arg.substring("--flap-margin=".length()));
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.size() != 2) {
+            System.err.println("Usage: [--flap-hold-time=ms] [--flap-margin=m] <regions> <trace>");
+            System.exit(2);
+        }
+
+        final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        RNGeofenceTraceReplay replay = new RNGeofenceTraceReplay(RNGeofenceImporter.read(new File(files.get(0))),
+                new Listener() {
+                    @Override
+                    public void onTransition(RNGeofenceDataObject event) {
+                        try {
+                            out.write(toJson(event));
+                            out.write('\n');
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                });
+        replay.setFlapSuppression(holdTime, margin);
+        long start = System.nanoTime();
+        RNGeofenceTraceReader.read(new File(files.get(1)), replay);
+        replay.finish();
+        out.flush();
+        System.err.println("Replayed " + replay.getLocations() + " locations into " + replay.getEvents()
+                + " events in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
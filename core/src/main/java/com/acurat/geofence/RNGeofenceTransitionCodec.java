@@ -0,0 +1,60 @@
+package com.acurat.geofence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary form of a transition: timestamp, transition code and the request ids.
+ */
+final class RNGeofenceTransitionCodec {
+
+    // Timestamp, transition code and id count
+    static final int MIN_LENGTH = 16;
+
+    private RNGeofenceTransitionCodec() {
+    }
+
+    /**
+     * Encodes the event after {@code reserved} zero bytes, which the caller can use for framing.
+     */
+    static byte[] encode(RNGeofenceDataObject event, int reserved) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 48 * event.getRequestIds().length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < reserved; i++) {
+            out.writeByte(0);
+        }
+        out.writeLong(event.getTimestamp());
+        out.writeInt(event.getTransition());
+        out.writeInt(event.getRequestIds().length);
+        for (String id : event.getRequestIds()) {
+            // Ids longer than 65535 bytes fail here
+            out.writeUTF(id);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes an event, throwing an {@code IOException} unless {@code data} holds exactly one.
+     */
+    static RNGeofenceDataObject decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        long timestamp = in.readLong();
+        int transition = in.readInt();
+        int count = in.readInt();
+        // Every id takes at least its 2 byte length
+        if (count < 0 || count > in.available() / 2) {
+            throw new IOException("Corrupt transition of " + count + " ids");
+        }
+        String[] requestIds = new String[count];
+        for (int i = 0; i < count; i++) {
+            requestIds[i] = in.readUTF();
+        }
+        if (in.available() != 0) {
+            throw new IOException("Transition followed by " + in.available() + " bytes");
+        }
+        return new RNGeofenceDataObject(transition, requestIds, timestamp);
+    }
+}
@@ -0,0 +1,113 @@
+package com.acurat.geofence;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RNGeofenceImporterTest {
+
+    @Test
+    public void readsPackedRegionsBack() {
+        List<GeofenceOptions> regions = Arrays.asList(
+                GeofenceOptions.circle("a", 48.137, 11.575, 120, RNGeofenceConstants.TRANSITION_ENTER, 0,
+                        RNGeofenceConstants.NEVER_EXPIRE),
+                GeofenceOptions.circle("büro", -33.9, 151.2, 50,
+                        RNGeofenceConstants.TRANSITION_ENTER | RNGeofenceConstants.TRANSITION_DWELL, 30000, 3600000));
+
+        assertEquals(regions, RNGeofenceImporter.read(ByteBuffer.wrap(RNGeofenceImporter.pack(regions))));
+        assertTrue(RNGeofenceImporter.read(ByteBuffer.wrap(
+                RNGeofenceImporter.pack(Arrays.<GeofenceOptions>asList()))).isEmpty());
+    }
+
+    @Test
+    public void readsCsvRegions() {
+        List<GeofenceOptions> regions = read("id,latitude,longitude,radius,loiteringDelay,expirationDuration\r\n"
+                + "a,48.137,11.575\r\n"
+                + "\r\n"
+                + "b, -33.9 , 151.2 ,75,30000,3600000\n"
+                + "c,1,2,,,60000");
+
+        assertEquals(3, regions.size());
+        GeofenceOptions a = regions.get(0);
+        assertEquals("a", a.id);
+        assertEquals(48.137, a.latitude, 0);
+        assertEquals(11.575, a.longitude, 0);
+        assertEquals(RNGeofenceConstants.DEFAULT_RADIUS, a.radius, 0);
+        assertEquals(RNGeofenceConstants.TRANSITION_ENTER | RNGeofenceConstants.TRANSITION_EXIT, a.transitionTypes);
+        assertEquals(RNGeofenceConstants.NEVER_EXPIRE, a.expirationDuration);
+        GeofenceOptions b = regions.get(1);
+        assertEquals(-33.9, b.latitude, 0);
+        assertEquals(75, b.radius, 0);
+        assertEquals(30000, b.loiteringDelay);
+        assertTrue((b.transitionTypes & RNGeofenceConstants.TRANSITION_DWELL) != 0);
+        assertEquals(3600000, b.expirationDuration);
+        assertEquals(60000, regions.get(2).expirationDuration);
+    }
+
+    @Test
+    public void rejectsTruncatedPackedRegions() {
+        byte[] packed = RNGeofenceImporter.pack(Arrays.asList(
+                GeofenceOptions.circle("a", 1, 2, 100, RNGeofenceConstants.TRANSITION_ENTER, 0,
+                        RNGeofenceConstants.NEVER_EXPIRE)));
+
+        assertRejected(Arrays.copyOf(packed, packed.length - 1), "Packed regions are truncated");
+        assertRejected(Arrays.copyOf(packed, 12), "Packed regions are truncated");
+        // A count far beyond the data must not be allocated
+        ByteBuffer.wrap(packed).putInt(8, Integer.MAX_VALUE);
+        assertRejected(packed, "Packed regions are truncated");
+    }
+
+    @Test
+    public void rejectsAnUnknownVersion() {
+        byte[] packed = RNGeofenceImporter.pack(Arrays.<GeofenceOptions>asList());
+        ByteBuffer.wrap(packed).putInt(4, RNGeofenceImporter.VERSION + 1);
+
+        assertRejected(packed, "Unknown packed regions version 2");
+    }
+
+    @Test
+    public void rejectsInvalidPackedRegions() {
+        byte[] packed = RNGeofenceImporter.pack(Arrays.asList(
+                GeofenceOptions.circle("a", 1, 2, 100, RNGeofenceConstants.TRANSITION_ENTER, 0,
+                        RNGeofenceConstants.NEVER_EXPIRE)));
+        // Latitude of the first region
+        ByteBuffer.wrap(packed).putDouble(12 + 2 + 1, 91);
+
+        assertRejected(packed, "Not a valid coordinate for region a");
+    }
+
+    @Test
+    public void rejectsMalformedCsv() {
+        assertRejected("a,48.1,x", "Not a number on line 1");
+        assertRejected("id,latitude,longitude\na,48.1,11.5\nb,48.1", "Line 3: Coordinate of region b is missing");
+        assertRejected("a,48.1,11.5,50,0,0,extra", "Line 1: Too many columns");
+        assertRejected("a,95,11.5", "Line 1: Not a valid coordinate for region a");
+        assertRejected("a,48.1,11.5,-5", "Line 1: Not a valid radius for region a");
+        assertRejected(",48.1,11.5", "Line 1: Region id is missing");
+        assertRejected("a,48.1,11.5,50,-1", "Line 1: Not a valid loitering delay for region a");
+    }
+
+    private static List<GeofenceOptions> read(String csv) {
+        return RNGeofenceImporter.read(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertRejected(String csv, String message) {
+        assertRejected(csv.getBytes(StandardCharsets.UTF_8), message);
+    }
+
+    private static void assertRejected(byte[] data, String message) {
+        try {
+            RNGeofenceImporter.read(ByteBuffer.wrap(data));
+            fail("Read " + message);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+    }
+}
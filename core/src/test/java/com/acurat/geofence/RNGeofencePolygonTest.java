@@ -0,0 +1,174 @@
+package com.acurat.geofence;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RNGeofencePolygonTest {
+
+    private static final double LATITUDE = 48.137;
+    private static final double LONGITUDE = 11.575;
+    private static final double METERS_PER_DEGREE = RNGeofenceSpatialIndex.METERS_PER_DEGREE;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsThreeVertices() {
+        new RNGeofencePolygon(new double[]{0, 1}, new double[]{0, 1});
+    }
+
+    @Test
+    public void containsPointsOfAConcavePolygon() {
+        // An L, open towards the north east
+        RNGeofencePolygon polygon = new RNGeofencePolygon(
+                new double[]{0, 0, 1, 1, 3, 3},
+                new double[]{0, 3, 3, 1, 1, 0});
+
+        assertTrue(polygon.contains(0.5, 0.5));
+        assertTrue(polygon.contains(0.5, 2.5));
+        assertTrue(polygon.contains(2.5, 0.5));
+        assertFalse(polygon.contains(2, 2));
+        assertFalse(polygon.contains(2.5, 2.5));
+        assertFalse(polygon.contains(-0.5, 0.5));
+        assertFalse(polygon.contains(0.5, 3.5));
+        // On the level of a horizontal edge
+        assertTrue(polygon.contains(1, 0.5));
+        assertFalse(polygon.contains(1, 2));
+    }
+
+    @Test
+    public void containsPointsOfAStar() {
+        int points = 5;
+        double[] latitudes = new double[2 * points];
+        double[] longitudes = new double[2 * points];
+        for (int i = 0; i < 2 * points; i++) {
+            double angle = Math.PI * i / points;
+            double distance = i % 2 == 0 ? 1 : 0.4;
+            latitudes[i] = distance * Math.sin(angle);
+            longitudes[i] = distance * Math.cos(angle);
+        }
+        RNGeofencePolygon polygon = new RNGeofencePolygon(latitudes, longitudes);
+
+        assertTrue(polygon.contains(0, 0));
+        assertTrue(polygon.contains(0, 0.9));
+        // Between two points of the star, inside its bounding box
+        double between = Math.PI / points;
+        assertFalse(polygon.contains(0.8 * Math.sin(between), 0.8 * Math.cos(between)));
+        assertTrue(polygon.contains(0.3 * Math.sin(between), 0.3 * Math.cos(between)));
+    }
+
+    @Test
+    public void enclosesASquareWithItsCircumcircle() {
+        double half = 0.001;
+        RNGeofencePolygon polygon = new RNGeofencePolygon(
+                new double[]{LATITUDE - half, LATITUDE - half, LATITUDE + half, LATITUDE + half},
+                new double[]{LONGITUDE - half, LONGITUDE + half, LONGITUDE + half, LONGITUDE - half});
+        double[] circle = polygon.enclosingCircle();
+
+        assertEquals(LATITUDE, circle[0], 1e-9);
+        assertEquals(LONGITUDE, circle[1], 1e-9);
+        double dy = half * METERS_PER_DEGREE;
+        double dx = half * METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE));
+        assertEquals(Math.sqrt(dx * dx + dy * dy), circle[2], 1e-6);
+    }
+
+    @Test
+    public void enclosesAnObtuseTriangleWithItsLongestSide() {
+        // The circumcircle of an obtuse triangle is larger than needed
+        RNGeofencePolygon polygon = new RNGeofencePolygon(
+                new double[]{LATITUDE, LATITUDE, LATITUDE + 0.0001},
+                new double[]{LONGITUDE - 0.002, LONGITUDE + 0.002, LONGITUDE});
+        double[] circle = polygon.enclosingCircle();
+
+        double half = 0.002 * METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE + 0.00005));
+        assertEquals(half, circle[2], 1e-3);
+        assertEquals(LATITUDE, circle[0], 1e-9);
+        assertEquals(LONGITUDE, circle[1], 1e-9);
+    }
+
+    @Test
+    public void enclosesRandomPolygonsMinimally() {
+        Random random = new Random(3);
+        for (int round = 0; round < 100; round++) {
+            int n = 3 + random.nextInt(15);
+            double[] latitudes = new double[n];
+            double[] longitudes = new double[n];
+            for (int i = 0; i < n; i++) {
+                latitudes[i] = LATITUDE + random.nextDouble() * 0.01;
+                longitudes[i] = LONGITUDE + random.nextDouble() * 0.01;
+            }
+            double[] circle = new RNGeofencePolygon(latitudes, longitudes).enclosingCircle();
+
+            // Same planar projection as the polygon, centered on the bounding box
+            double originLatitude = (min(latitudes) + max(latitudes)) / 2;
+            double originLongitude = (min(longitudes) + max(longitudes)) / 2;
+            double cos = Math.cos(Math.toRadians(originLatitude));
+            double[] x = new double[n];
+            double[] y = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = (longitudes[i] - originLongitude) * cos * METERS_PER_DEGREE;
+                y[i] = (latitudes[i] - originLatitude) * METERS_PER_DEGREE;
+            }
+            double cx = (circle[1] - originLongitude) * cos * METERS_PER_DEGREE;
+            double cy = (circle[0] - originLatitude) * METERS_PER_DEGREE;
+            for (int i = 0; i < n; i++) {
+                assertTrue(Math.hypot(x[i] - cx, y[i] - cy) <= circle[2] + 1e-6);
+            }
+            assertEquals(bruteForceRadius(x, y), circle[2], 1e-6);
+        }
+    }
+
+    /**
+     * Smallest circle through two or three of the points that encloses all of them.
+     */
+    private static double bruteForceRadius(double[] x, double[] y) {
+        int n = x.length;
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                best = Math.min(best, enclosingRadius(x, y, (x[i] + x[j]) / 2, (y[i] + y[j]) / 2,
+                        Math.hypot(x[i] - x[j], y[i] - y[j]) / 2));
+                for (int k = j + 1; k < n; k++) {
+                    double d = 2 * (x[i] * (y[j] - y[k]) + x[j] * (y[k] - y[i]) + x[k] * (y[i] - y[j]));
+                    if (d == 0) {
+                        continue;
+                    }
+                    double si = x[i] * x[i] + y[i] * y[i];
+                    double sj = x[j] * x[j] + y[j] * y[j];
+                    double sk = x[k] * x[k] + y[k] * y[k];
+                    double cx = (si * (y[j] - y[k]) + sj * (y[k] - y[i]) + sk * (y[i] - y[j])) / d;
+                    double cy = (si * (x[k] - x[j]) + sj * (x[i] - x[k]) + sk * (x[j] - x[i])) / d;
+                    best = Math.min(best, enclosingRadius(x, y, cx, cy, Math.hypot(x[i] - cx, y[i] - cy)));
+                }
+            }
+        }
+        return best;
+    }
+
+    private static double enclosingRadius(double[] x, double[] y, double cx, double cy, double radius) {
+        for (int i = 0; i < x.length; i++) {
+            if (Math.hypot(x[i] - cx, y[i] - cy) > radius + 1e-9) {
+                return Double.MAX_VALUE;
+            }
+        }
+        return radius;
+    }
+
+    private static double min(double[] values) {
+        double min = Double.MAX_VALUE;
+        for (double value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    private static double max(double[] values) {
+        double max = -Double.MAX_VALUE;
+        for (double value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+}
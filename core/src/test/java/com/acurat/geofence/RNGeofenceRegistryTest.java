@@ -0,0 +1,298 @@
+package com.acurat.geofence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RNGeofenceRegistryTest {
+
+    private static final double LATITUDE = 48.137;
+    private static final double LONGITUDE = 11.575;
+    // About 1.1 km between neighbouring regions of a row
+    private static final double STEP = 0.01;
+
+    private RNGeofenceRegistry mRegistry;
+
+    @Before
+    public void setUp() {
+        mRegistry = new RNGeofenceRegistry();
+    }
+
+    @Test
+    public void selectsEveryRegionWithinTheLimit() {
+        mRegistry.setActiveLimit(5);
+        mRegistry.putAll(row(5));
+
+        assertFalse(mRegistry.needsLocation());
+        RNGeofenceRegistry.Swap swap = mRegistry.select(Double.NaN, Double.NaN);
+        assertEquals(ids(row(5)), addedIds(swap));
+        assertTrue(swap.removed.isEmpty());
+        assertFalse(swap.reset);
+        assertEquals(5, mRegistry.getActiveCount());
+        assertTrue(mRegistry.select(Double.NaN, Double.NaN).isEmpty());
+    }
+
+    @Test
+    public void selectsTheNearestRegionsOverTheLimit() {
+        mRegistry.setActiveLimit(3);
+        mRegistry.putAll(row(10));
+        assertTrue(mRegistry.needsLocation());
+
+        RNGeofenceRegistry.Swap swap = mRegistry.select(LATITUDE, LONGITUDE);
+        Set<String> added = addedIds(swap);
+        assertTrue(added.remove(RNGeofenceConstants.REFRESH_GEOFENCE_ID));
+        assertEquals(new HashSet<>(Arrays.asList("region-0", "region-1", "region-2")), added);
+        assertEquals(4, mRegistry.getActiveCount());
+
+        // The refresh geofence reaches up to the edge of the nearest region left out
+        GeofenceOptions refresh = refresh(swap);
+        double edge = 3 * STEP * RNGeofenceSpatialIndex.METERS_PER_DEGREE - 100;
+        assertEquals(edge, refresh.radius, 1);
+
+        swap = mRegistry.select(LATITUDE + 9 * STEP, LONGITUDE);
+        added = addedIds(swap);
+        assertTrue(added.remove(RNGeofenceConstants.REFRESH_GEOFENCE_ID));
+        assertEquals(new HashSet<>(Arrays.asList("region-7", "region-8", "region-9")), added);
+        assertEquals(new HashSet<>(Arrays.asList("region-0", "region-1", "region-2")),
+                new HashSet<>(swap.removed));
+        assertEquals(4, mRegistry.getActiveCount());
+    }
+
+    @Test
+    public void clustersOnlyOverTheLimit() {
+        mRegistry.setActiveLimit(10);
+        mRegistry.setClusterRadius(300);
+        List<GeofenceOptions> dense = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            dense.add(circle("dense-" + i, LATITUDE, LONGITUDE, 20 + i));
+        }
+        mRegistry.putAll(dense);
+        mRegistry.put(circle("far", LATITUDE + 1, LONGITUDE, 100));
+
+        RNGeofenceRegistry.Swap swap = mRegistry.select(LATITUDE, LONGITUDE);
+        assertEquals(2, swap.added.size());
+        String cluster = null;
+        for (GeofenceOptions options : swap.added) {
+            if (options.id.startsWith(RNGeofenceConstants.CLUSTER_GEOFENCE_PREFIX)) {
+                cluster = options.id;
+            }
+        }
+        assertTrue(cluster != null);
+
+        // Down to the limit while the cluster is entered, which would register it and its members
+        mRegistry.removeAll(Collections.singletonList("far"));
+        mRegistry.resolveCluster(cluster, RNGeofenceConstants.TRANSITION_ENTER, LATITUDE, LONGITUDE);
+        assertFalse(mRegistry.needsLocation());
+        swap = mRegistry.select(Double.NaN, Double.NaN);
+        assertEquals(ids(dense), addedIds(swap));
+        assertEquals(new HashSet<>(Arrays.asList(cluster, "far")), new HashSet<>(swap.removed));
+        assertEquals(10, mRegistry.getActiveCount());
+
+        // Over the limit again the cluster has to be entered anew
+        mRegistry.put(circle("far", LATITUDE + 1, LONGITUDE, 100));
+        swap = mRegistry.select(LATITUDE, LONGITUDE);
+        assertEquals(new HashSet<>(Arrays.asList(cluster, "far")), addedIds(swap));
+        assertEquals(2, mRegistry.getActiveCount());
+    }
+
+    @Test
+    public void syncLeavesUnchangedRegions() {
+        mRegistry.putAll(row(3));
+        GeofenceOptions moved = circle("region-1", LATITUDE, LONGITUDE + STEP, 100);
+        GeofenceOptions added = circle("region-3", LATITUDE, LONGITUDE + 2 * STEP, 100);
+
+        RNGeofenceRegistry.SyncResult result = mRegistry.sync(Arrays.asList(row(1).get(0), moved, added));
+        assertEquals(new HashSet<>(Arrays.asList("region-1", "region-3")), ids(result.changed));
+        assertEquals(Collections.singletonList("region-2"), result.removed);
+        assertEquals(1, result.unchanged);
+        assertEquals(3, mRegistry.size());
+        assertEquals(moved, mRegistry.get("region-1"));
+        assertNull(mRegistry.get("region-2"));
+
+        result = mRegistry.sync(Collections.<GeofenceOptions>emptyList());
+        assertEquals(3, result.removed.size());
+        assertEquals(0, mRegistry.size());
+    }
+
+    @Test
+    public void removesByTag() {
+        String[] home = {"home"};
+        String[] both = {"home", "work"};
+        mRegistry.put(circle("a", LATITUDE, LONGITUDE, 100).withTags(home));
+        mRegistry.put(circle("b", LATITUDE + STEP, LONGITUDE, 100).withTags(both));
+        mRegistry.put(circle("c", LATITUDE + 2 * STEP, LONGITUDE, 100));
+
+        assertEquals(2, mRegistry.countByTag("home"));
+        assertEquals(Arrays.asList("a", "b"), mRegistry.removeByTag("home"));
+        assertEquals(0, mRegistry.countByTag("home"));
+        assertEquals(0, mRegistry.countByTag("work"));
+        assertTrue(mRegistry.removeByTag("home").isEmpty());
+        assertEquals(1, mRegistry.size());
+        assertEquals("c", mRegistry.getAll().get(0).id);
+    }
+
+    @Test
+    public void retaggingMovesTheRegion() {
+        mRegistry.put(circle("a", LATITUDE, LONGITUDE, 100).withTags(new String[]{"home"}));
+        mRegistry.put(circle("a", LATITUDE, LONGITUDE, 100).withTags(new String[]{"work"}));
+
+        assertEquals(0, mRegistry.countByTag("home"));
+        assertEquals(Collections.singletonList("a"), mRegistry.getIdsByTag("work"));
+    }
+
+    @Test
+    public void removesExpiredRegions() {
+        long now = 1000000000L;
+        mRegistry.put(expiring("a", now + 60000));
+        mRegistry.put(expiring("b", now + 120000));
+        mRegistry.put(circle("c", LATITUDE, LONGITUDE, 100));
+
+        assertTrue(mRegistry.nextExpiry() <= now + 60000);
+        assertTrue(mRegistry.removeExpired(now + 59999).isEmpty());
+        assertEquals(Collections.singletonList("a"), mRegistry.removeExpired(now + 60000));
+        assertTrue(mRegistry.nextExpiry() > now + 60000);
+        assertTrue(mRegistry.nextExpiry() <= now + 120000);
+
+        // Replacing a region without an expiry cancels it
+        mRegistry.put(circle("b", LATITUDE, LONGITUDE, 100));
+        assertTrue(mRegistry.removeExpired(now + 1000000).isEmpty());
+        assertEquals(Long.MAX_VALUE, mRegistry.nextExpiry());
+        assertEquals(2, mRegistry.size());
+    }
+
+    @Test
+    public void stampsTheExpiryWhenPut() {
+        long before = System.currentTimeMillis();
+        mRegistry.put(GeofenceOptions.circle("a", LATITUDE, LONGITUDE, 100,
+                RNGeofenceConstants.TRANSITION_ENTER, 0, 60000));
+
+        long expiresAt = mRegistry.get("a").expiresAt;
+        assertTrue(expiresAt >= before + 60000);
+        assertTrue(expiresAt <= System.currentTimeMillis() + 60000);
+    }
+
+    @Test
+    public void removedRegionsAreRemovedFromPlayServices() {
+        mRegistry.putAll(row(3));
+        mRegistry.select(Double.NaN, Double.NaN);
+        mRegistry.removeAll(Arrays.asList("region-1", "unknown"));
+
+        assertEquals(new HashSet<>(Arrays.asList("region-1", "unknown")),
+                new HashSet<>(mRegistry.takeRemovals().removed));
+        assertTrue(mRegistry.takeRemovals().removed.isEmpty());
+    }
+
+    @Test
+    public void queriesRegionsContainingThePoint() {
+        mRegistry.putAll(row(3));
+        mRegistry.put(square("square", LATITUDE, LONGITUDE, 0.001));
+
+        List<String> containing = new ArrayList<>(ids(mRegistry.queryContaining(LATITUDE, LONGITUDE)));
+        Collections.sort(containing);
+        assertEquals(Arrays.asList("region-0", "square"), containing);
+        // Inside the enclosing circle of the square but outside of the square itself
+        double corner = LATITUDE + 0.00095;
+        assertTrue(mRegistry.queryContaining(corner, LONGITUDE + 0.00105).isEmpty());
+        assertEquals(Collections.singleton("square"), ids(mRegistry.queryCircles(corner, LONGITUDE + 0.00105)));
+
+        double[] distances = new double[2];
+        List<GeofenceOptions> nearest = mRegistry.nearest(LATITUDE + 2 * STEP, LONGITUDE, 2, distances);
+        assertEquals("region-2", nearest.get(0).id);
+        assertEquals("region-1", nearest.get(1).id);
+        assertEquals(0, distances[0], 1e-6);
+        assertEquals(STEP * RNGeofenceSpatialIndex.METERS_PER_DEGREE, distances[1], 1);
+    }
+
+    @Test
+    public void suppressesThePolygonEnterUntilThePolygonIsEntered() {
+        mRegistry.put(square("square", LATITUDE, LONGITUDE, 0.001));
+        double cornerLatitude = LATITUDE + 0.00095;
+        double cornerLongitude = LONGITUDE + 0.00105;
+
+        assertFalse(mRegistry.confirmTransition("square", RNGeofenceConstants.TRANSITION_ENTER,
+                cornerLatitude, cornerLongitude));
+        assertTrue(mRegistry.hasSuppressedEnters());
+        assertTrue(mRegistry.confirmSuppressedEnters(cornerLatitude, cornerLongitude).isEmpty());
+        assertEquals(Collections.singletonList("square"), mRegistry.confirmSuppressedEnters(LATITUDE, LONGITUDE));
+        assertFalse(mRegistry.hasSuppressedEnters());
+        assertTrue(mRegistry.confirmTransition("square", RNGeofenceConstants.TRANSITION_EXIT,
+                LATITUDE + 1, LONGITUDE));
+    }
+
+    @Test
+    public void suppressesTheExitOfASuppressedEnter() {
+        mRegistry.put(square("square", LATITUDE, LONGITUDE, 0.001));
+
+        assertFalse(mRegistry.confirmTransition("square", RNGeofenceConstants.TRANSITION_ENTER,
+                LATITUDE + 0.00095, LONGITUDE + 0.00105));
+        assertFalse(mRegistry.confirmTransition("square", RNGeofenceConstants.TRANSITION_EXIT,
+                LATITUDE + 1, LONGITUDE));
+        assertFalse(mRegistry.hasSuppressedEnters());
+        assertTrue(mRegistry.confirmTransition("square", RNGeofenceConstants.TRANSITION_ENTER,
+                LATITUDE, LONGITUDE));
+    }
+
+    /**
+     * Regions of 100 m along a meridian, {@link #STEP} apart, starting at the reference point.
+     */
+    private static List<GeofenceOptions> row(int count) {
+        List<GeofenceOptions> regions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            regions.add(circle("region-" + i, LATITUDE + i * STEP, LONGITUDE, 100));
+        }
+        return regions;
+    }
+
+    static GeofenceOptions circle(String id, double latitude, double longitude, float radius) {
+        return GeofenceOptions.circle(id, latitude, longitude, radius,
+                RNGeofenceConstants.TRANSITION_ENTER | RNGeofenceConstants.TRANSITION_EXIT, 0,
+                RNGeofenceConstants.NEVER_EXPIRE);
+    }
+
+    private static GeofenceOptions expiring(String id, long expiresAt) {
+        return GeofenceOptions.circle(id, LATITUDE, LONGITUDE, 100, RNGeofenceConstants.TRANSITION_ENTER, 0, 60000)
+                .expiringAt(expiresAt);
+    }
+
+    private static GeofenceOptions square(String id, double latitude, double longitude, double half) {
+        RNGeofencePolygon polygon = new RNGeofencePolygon(
+                new double[]{latitude - half, latitude - half, latitude + half, latitude + half},
+                new double[]{longitude - half, longitude + half, longitude + half, longitude - half});
+        double[] circle = polygon.enclosingCircle();
+        return new GeofenceOptions(id, circle[1], circle[0], (float) Math.ceil(circle[2]),
+                RNGeofenceConstants.TRANSITION_ENTER | RNGeofenceConstants.TRANSITION_EXIT, 0,
+                RNGeofenceConstants.NEVER_EXPIRE, polygon, GeofenceOptions.NO_TAGS);
+    }
+
+    private static GeofenceOptions refresh(RNGeofenceRegistry.Swap swap) {
+        for (GeofenceOptions options : swap.added) {
+            if (RNGeofenceConstants.REFRESH_GEOFENCE_ID.equals(options.id)) {
+                return options;
+            }
+        }
+        throw new AssertionError("No refresh geofence");
+    }
+
+    private static Set<String> addedIds(RNGeofenceRegistry.Swap swap) {
+        return ids(swap.added);
+    }
+
+    private static Set<String> ids(List<GeofenceOptions> regions) {
+        Set<String> ids = new HashSet<>();
+        for (GeofenceOptions options : regions) {
+            ids.add(options.id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,161 @@
+package com.acurat.geofence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class RNGeofenceSpatialIndexTest {
+
+    private static final int CAPACITY = 2000;
+    private static final double LATITUDE = 48.0;
+    private static final double LONGITUDE = 2.0;
+    private static final double SPREAD = 0.3;
+
+    private final double[] mLatitudes = new double[CAPACITY];
+    private final double[] mLongitudes = new double[CAPACITY];
+    private final float[] mRadii = new float[CAPACITY];
+    private final RNGeofenceSpatialIndex mIndex = new RNGeofenceSpatialIndex();
+    private final Random mRandom = new Random(7);
+    private int mSize;
+
+    @Before
+    public void setUp() {
+        mIndex.bind(mLatitudes, mLongitudes, mRadii);
+    }
+
+    @Test
+    public void matchesBruteForceWhileRegionsComeAndGo() {
+        for (int round = 0; round < 20000; round++) {
+            if (mSize < CAPACITY && (mSize == 0 || mRandom.nextInt(10) < 6)) {
+                add();
+            } else {
+                remove(mRandom.nextInt(mSize));
+            }
+            if (round % 1000 == 0) {
+                verify();
+            }
+        }
+        verify();
+    }
+
+    @Test
+    public void findsLargeRegions() {
+        // Covers far more cells than are linked individually
+        add(LATITUDE, LONGITUDE, 30000);
+        add(LATITUDE + 0.1, LONGITUDE, 100);
+
+        int[] out = new int[4];
+        assertEquals(1, mIndex.containing(LATITUDE + 0.2, LONGITUDE + 0.2, out));
+        assertEquals(0, out[0]);
+        assertEquals(2, mIndex.containing(LATITUDE + 0.1, LONGITUDE, out));
+        remove(0);
+        assertEquals(1, mIndex.containing(LATITUDE + 0.1, LONGITUDE, out));
+        assertEquals(0, mIndex.containing(LATITUDE + 0.2, LONGITUDE + 0.2, out));
+    }
+
+    @Test
+    public void findsNearestBeyondTheScannedRings() {
+        add(LATITUDE, LONGITUDE, 100);
+        add(LATITUDE + 5, LONGITUDE + 5, 100);
+
+        int[] slots = new int[2];
+        double[] distances = new double[2];
+        assertEquals(2, mIndex.nearest(LATITUDE + 4, LONGITUDE + 4, 2, slots, distances));
+        assertEquals(1, slots[0]);
+        assertEquals(0, slots[1]);
+        assertEquals(bruteForceDistance(LATITUDE + 4, LONGITUDE + 4, 0), distances[1], 1e-6);
+    }
+
+    @Test
+    public void reportsTheCountBeyondTheOutput() {
+        for (int i = 0; i < 5; i++) {
+            add(LATITUDE, LONGITUDE, 100 + i);
+        }
+        int[] out = new int[2];
+        assertEquals(5, mIndex.containing(LATITUDE, LONGITUDE, out));
+    }
+
+    private void add() {
+        // Now and then a region large enough to skip the coverage grid
+        float radius = mRandom.nextInt(20) == 0 ? 20000 : 50 + mRandom.nextInt(2000);
+        add(LATITUDE + mRandom.nextDouble() * SPREAD, LONGITUDE + mRandom.nextDouble() * SPREAD, radius);
+    }
+
+    private void add(double latitude, double longitude, float radius) {
+        mLatitudes[mSize] = latitude;
+        mLongitudes[mSize] = longitude;
+        mRadii[mSize] = radius;
+        mIndex.add(mSize);
+        mSize++;
+    }
+
+    /**
+     * Removes the slot the way the registry does, by moving the last region into it.
+     */
+    private void remove(int slot) {
+        int last = mSize - 1;
+        mIndex.remove(slot);
+        if (slot != last) {
+            mIndex.move(last, slot);
+            mLatitudes[slot] = mLatitudes[last];
+            mLongitudes[slot] = mLongitudes[last];
+            mRadii[slot] = mRadii[last];
+        }
+        mSize--;
+        mIndex.setSize(mSize);
+    }
+
+    private void verify() {
+        int[] out = new int[CAPACITY];
+        int[] slots = new int[CAPACITY];
+        double[] distances = new double[CAPACITY];
+        for (int query = 0; query < 50; query++) {
+            double latitude = LATITUDE + mRandom.nextDouble() * SPREAD;
+            double longitude = LONGITUDE + mRandom.nextDouble() * SPREAD;
+
+            int count = mIndex.containing(latitude, longitude, out);
+            Set<Integer> found = new HashSet<>();
+            for (int i = 0; i < count; i++) {
+                found.add(out[i]);
+            }
+            assertEquals(count, found.size());
+            Set<Integer> expected = new HashSet<>();
+            for (int slot = 0; slot < mSize; slot++) {
+                double distance = bruteForceDistance(latitude, longitude, slot);
+                if (Math.abs(distance - mRadii[slot]) < 1e-3) {
+                    // Rounding decides right at the edge
+                    found.remove(slot);
+                } else if (distance <= mRadii[slot]) {
+                    expected.add(slot);
+                }
+            }
+            assertEquals(expected, found);
+
+            int k = 1 + mRandom.nextInt(20);
+            double[] bruteForce = new double[mSize];
+            for (int slot = 0; slot < mSize; slot++) {
+                bruteForce[slot] = bruteForceDistance(latitude, longitude, slot);
+            }
+            Arrays.sort(bruteForce);
+            count = mIndex.nearest(latitude, longitude, k, slots, distances);
+            assertEquals(Math.min(k, mSize), count);
+            for (int i = 0; i < count; i++) {
+                assertEquals(bruteForce[i], distances[i], 1e-6);
+                assertEquals(bruteForceDistance(latitude, longitude, slots[i]), distances[i], 1e-6);
+            }
+        }
+    }
+
+    private double bruteForceDistance(double latitude, double longitude, int slot) {
+        double dLatitude = (mLatitudes[slot] - latitude) * RNGeofenceSpatialIndex.METERS_PER_DEGREE;
+        double dLongitude = (mLongitudes[slot] - longitude) * RNGeofenceSpatialIndex.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(latitude));
+        return Math.sqrt(dLatitude * dLatitude + dLongitude * dLongitude);
+    }
+}
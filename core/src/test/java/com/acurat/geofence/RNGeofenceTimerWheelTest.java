@@ -0,0 +1,154 @@
+package com.acurat.geofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RNGeofenceTimerWheelTest {
+
+    private static final long TICK = 1000;
+    private static final int SLOTS = 16;
+    private static final long NOW = 1000000;
+
+    @Test
+    public void expiresTimersAtTheirDeadline() {
+        RNGeofenceTimerWheel wheel = new RNGeofenceTimerWheel(TICK, SLOTS);
+        wheel.schedule("a", NOW + 1500);
+        wheel.schedule("b", NOW + 500);
+        wheel.schedule("c", NOW + 1700);
+        List<String> expired = new ArrayList<>();
+
+        assertEquals(0, wheel.advance(NOW, expired));
+        assertEquals(1, wheel.advance(NOW + 500, expired));
+        assertEquals(Collections.singletonList("b"), expired);
+        // A later timer in the same tick is not due yet
+        expired.clear();
+        assertEquals(1, wheel.advance(NOW + 1600, expired));
+        assertEquals(Collections.singletonList("a"), expired);
+        expired.clear();
+        assertEquals(1, wheel.advance(NOW + 5000, expired));
+        assertEquals(Collections.singletonList("c"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancelsAndReschedules() {
+        RNGeofenceTimerWheel wheel = new RNGeofenceTimerWheel(TICK, SLOTS);
+        wheel.schedule("a", NOW + 1000);
+        wheel.schedule("b", NOW + 2000);
+
+        assertTrue(wheel.cancel("a"));
+        assertFalse(wheel.cancel("a"));
+        assertFalse(wheel.isScheduled("a"));
+        wheel.schedule("b", NOW + 9000);
+        assertEquals(1, wheel.size());
+
+        List<String> expired = new ArrayList<>();
+        assertEquals(0, wheel.advance(NOW + 8999, expired));
+        assertEquals(1, wheel.advance(NOW + 9000, expired));
+        assertEquals(Collections.singletonList("b"), expired);
+    }
+
+    @Test
+    public void keepsTimersOfLaterRevolutions() {
+        RNGeofenceTimerWheel wheel = new RNGeofenceTimerWheel(TICK, SLOTS);
+        long revolution = SLOTS * TICK;
+        wheel.schedule("near", NOW + 2000);
+        wheel.schedule("far", NOW + 2000 + 3 * revolution);
+        List<String> expired = new ArrayList<>();
+
+        wheel.advance(NOW + 2000, expired);
+        assertEquals(Collections.singletonList("near"), expired);
+        for (long now = NOW + 2000; now < NOW + 2000 + 3 * revolution; now += TICK) {
+            wheel.advance(now, expired);
+        }
+        assertEquals(1, expired.size());
+        wheel.advance(NOW + 2000 + 3 * revolution, expired);
+        assertEquals(Arrays.asList("near", "far"), expired);
+    }
+
+    @Test
+    public void firesPastDeadlinesOnTheNextAdvance() {
+        RNGeofenceTimerWheel wheel = new RNGeofenceTimerWheel(TICK, SLOTS);
+        List<String> expired = new ArrayList<>();
+        wheel.advance(NOW, expired);
+        wheel.schedule("late", NOW - 5000);
+
+        assertEquals(1, wheel.advance(NOW, expired));
+        assertEquals(Collections.singletonList("late"), expired);
+    }
+
+    @Test
+    public void catchesUpAfterFallingBehind() {
+        RNGeofenceTimerWheel wheel = new RNGeofenceTimerWheel(TICK, SLOTS);
+        List<String> expired = new ArrayList<>();
+        wheel.advance(NOW, expired);
+        for (int i = 0; i < 10; i++) {
+            wheel.schedule("timer-" + i, NOW + i * 7 * TICK);
+        }
+
+        assertEquals(10, wheel.advance(NOW + 100 * SLOTS * TICK, expired));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void wakesUpAtOrBeforeTheNextDeadline() {
+        RNGeofenceTimerWheel wheel = new RNGeofenceTimerWheel(TICK, SLOTS);
+        assertEquals(Long.MAX_VALUE, wheel.nextWakeUp());
+        assertEquals(Long.MAX_VALUE, wheel.nextDeadline());
+
+        List<String> expired = new ArrayList<>();
+        wheel.advance(NOW, expired);
+        wheel.schedule("a", NOW + 4200);
+        wheel.schedule("b", NOW + 2300);
+        assertEquals(NOW + 2300, wheel.nextDeadline());
+        assertEquals(NOW + 2300, wheel.nextWakeUp());
+
+        // Beyond the revolution the wheel wakes up at its end and looks again
+        wheel.clear();
+        wheel.schedule("far", NOW + 10 * SLOTS * TICK);
+        long wakeUp = wheel.nextWakeUp();
+        assertTrue(wakeUp <= NOW + 10 * SLOTS * TICK);
+        assertTrue(wakeUp > NOW);
+        while ((wakeUp = wheel.nextWakeUp()) < NOW + 10 * SLOTS * TICK) {
+            assertEquals(0, wheel.advance(wakeUp, expired));
+        }
+        assertEquals(NOW + 10 * SLOTS * TICK, wakeUp);
+        assertEquals(1, wheel.advance(wakeUp, expired));
+    }
+
+    @Test
+    public void expiresRandomDeadlinesOnTime() {
+        Random random = new Random(11);
+        RNGeofenceTimerWheel wheel = new RNGeofenceTimerWheel(TICK, SLOTS);
+        long[] deadlines = new long[500];
+        List<String> expired = new ArrayList<>();
+        wheel.advance(NOW, expired);
+        for (int i = 0; i < deadlines.length; i++) {
+            deadlines[i] = NOW + 1 + random.nextInt(100 * SLOTS * (int) TICK);
+            wheel.schedule(Integer.toString(i), deadlines[i]);
+        }
+
+        for (long now = NOW; now <= NOW + 100 * SLOTS * TICK; now += 1 + random.nextInt(3000)) {
+            expired.clear();
+            wheel.advance(now, expired);
+            for (String key : expired) {
+                long deadline = deadlines[Integer.parseInt(key)];
+                assertTrue(deadline <= now);
+                assertTrue(deadline > now - 3000);
+            }
+            assertTrue(wheel.nextDeadline() > now);
+            assertTrue(wheel.nextWakeUp() <= wheel.nextDeadline());
+        }
+        wheel.advance(NOW + 100 * SLOTS * TICK + 1, expired);
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,115 @@
+package com.acurat.geofence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RNGeofenceTraceReaderTest {
+
+    private final List<String> mEvents = new ArrayList<>();
+    private RNGeofenceTraceReplay mReplay;
+
+    @Before
+    public void setUp() {
+        mReplay = new RNGeofenceTraceReplay(Collections.singletonList(
+                GeofenceOptions.circle("home", 48.137, 11.575, 100,
+                        RNGeofenceConstants.TRANSITION_ENTER | RNGeofenceConstants.TRANSITION_EXIT, 0,
+                        RNGeofenceConstants.NEVER_EXPIRE)),
+                new RNGeofenceTraceReplay.Listener() {
+                    @Override
+                    public void onTransition(RNGeofenceDataObject event) {
+                        mEvents.add(RNGeofenceTraceReplay.toJson(event));
+                    }
+                });
+    }
+
+    @Test
+    public void readsCsv() {
+        read("timestamp,latitude,longitude\r\n"
+                + "1000,48.2,11.575\r\n"
+                + "\r\n"
+                + "2000,48.137,11.575,12.5\r\n"
+                + "1970-01-01T00:00:03Z,48.2,11.575");
+
+        assertEquals(3, mReplay.getLocations());
+        assertEquals(events(2000, 3000), mEvents);
+    }
+
+    @Test
+    public void readsGpx() {
+        read("<?xml version=\"1.0\"?>\n<gpx><trk><trkseg>\n"
+                + "<trkpt lat=\"48.2\" lon=\"11.575\"><ele>500</ele><time>1970-01-01T00:00:01Z</time></trkpt>\n"
+                + "<trkpt lon='11.575' lat='48.137'><time>1970-01-01T00:00:02.000Z</time></trkpt>\n"
+                + "<trkpt\tlat=\"48.2\" lon=\"11.575\"><time>1970-01-01T01:00:03+01:00</time></trkpt>\n"
+                + "</trkseg></trk></gpx>");
+
+        assertEquals(3, mReplay.getLocations());
+        assertEquals(events(2000, 3000), mEvents);
+    }
+
+    @Test
+    public void parsesIsoTimes() {
+        assertEquals(0, parseIsoTime("1970-01-01T00:00:00Z"));
+        assertEquals(1704067200000L, parseIsoTime("2024-01-01T00:00:00Z"));
+        assertEquals(1704067200250L, parseIsoTime("2024-01-01T00:00:00.25"));
+        assertEquals(1704067200000L, parseIsoTime("2024-01-01T02:00:00+02:00"));
+        assertEquals(1709164800000L, parseIsoTime("2024-02-29T00:00:00Z"));
+    }
+
+    @Test
+    public void rejectsMalformedCsv() {
+        assertRejected("1000,48.1", "Line 1 needs timestamp, latitude and longitude");
+        assertRejected("timestamp,latitude,longitude\n1000,48.1,11.5\n2000,x,11.5", "Line 3: ");
+        assertRejected("1000,48.1,11.5\n2000-13-01,48.1,11.5", "Line 2: ");
+    }
+
+    @Test
+    public void rejectsMalformedGpx() {
+        assertRejected("<gpx><trkpt lat=\"48.1\" lon=\"11.5\"", "Unterminated trkpt");
+        assertRejected("<gpx><trkpt lat=\"48.1\" lon=\"11.5\"></trkpt></gpx>", "Location without time");
+        assertRejected("<gpx><trkpt lat=\"48.1\"><time>1970-01-01T00:00:01Z</time></trkpt></gpx>",
+                "Location without lon=");
+        assertRejected("<gpx><trkpt lat=\"48.1\" lon=\"11.5\"><time>1970-01-01T00:00:01Z</trkpt></gpx>",
+                "Unterminated time");
+    }
+
+    @Test
+    public void rejectsATraceGoingBackInTime() {
+        assertRejected("2000,48.1,11.5\n1000,48.1,11.5", "Line 2: Trace goes back in time");
+    }
+
+    private void read(String trace) {
+        RNGeofenceTraceReader.read(ByteBuffer.wrap(trace.getBytes(StandardCharsets.UTF_8)), mReplay);
+        mReplay.finish();
+    }
+
+    private void assertRejected(String trace, String message) {
+        try {
+            read(trace);
+            fail("Read " + message);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+    }
+
+    private static long parseIsoTime(String time) {
+        byte[] bytes = time.getBytes(StandardCharsets.US_ASCII);
+        return RNGeofenceTraceReader.parseIsoTime(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    private static List<String> events(long enter, long exit) {
+        List<String> events = new ArrayList<>();
+        events.add("{\"ids\":[\"home\"],\"transitionType\":\"ENTER\",\"timestamp\":" + enter + "}");
+        events.add("{\"ids\":[\"home\"],\"transitionType\":\"EXIT\",\"timestamp\":" + exit + "}");
+        return events;
+    }
+}
@@ -0,0 +1,66 @@
+package com.acurat.geofence;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RNGeofenceTransitionCodecTest {
+
+    @Test
+    public void decodesWhatItEncodes() throws IOException {
+        assertRoundTrip(new RNGeofenceDataObject(RNGeofenceConstants.TRANSITION_ENTER,
+                new String[]{"home"}, 1704067200000L));
+        assertRoundTrip(new RNGeofenceDataObject(RNGeofenceConstants.TRANSITION_DWELL,
+                new String[]{"a", "", "büro", "\u0000"}, Long.MAX_VALUE));
+        assertRoundTrip(new RNGeofenceDataObject(RNGeofenceConstants.TRANSITION_EXIT, new String[0], 0));
+    }
+
+    @Test
+    public void leavesTheReservedBytesEmpty() throws IOException {
+        RNGeofenceDataObject event = new RNGeofenceDataObject(RNGeofenceConstants.TRANSITION_EXIT,
+                new String[]{"home"}, 42);
+        byte[] framed = RNGeofenceTransitionCodec.encode(event, 4);
+
+        assertArrayEquals(new byte[4], Arrays.copyOf(framed, 4));
+        assertEquals(RNGeofenceTransitionCodec.encode(event, 0).length + 4, framed.length);
+        RNGeofenceDataObject decoded = RNGeofenceTransitionCodec.decode(Arrays.copyOfRange(framed, 4, framed.length));
+        assertEquals(42, decoded.getTimestamp());
+    }
+
+    @Test
+    public void rejectsCorruptData() throws IOException {
+        byte[] data = RNGeofenceTransitionCodec.encode(new RNGeofenceDataObject(RNGeofenceConstants.TRANSITION_ENTER,
+                new String[]{"home", "work"}, 1000), 0);
+
+        assertRejected(Arrays.copyOf(data, RNGeofenceTransitionCodec.MIN_LENGTH - 1));
+        assertRejected(Arrays.copyOf(data, data.length - 1));
+        assertRejected(Arrays.copyOf(data, data.length + 1));
+        byte[] count = data.clone();
+        ByteBuffer.wrap(count).putInt(12, Integer.MAX_VALUE);
+        assertRejected(count);
+        ByteBuffer.wrap(count).putInt(12, -1);
+        assertRejected(count);
+    }
+
+    private static void assertRoundTrip(RNGeofenceDataObject event) throws IOException {
+        RNGeofenceDataObject decoded = RNGeofenceTransitionCodec.decode(RNGeofenceTransitionCodec.encode(event, 0));
+        assertEquals(event.getTransition(), decoded.getTransition());
+        assertArrayEquals(event.getRequestIds(), decoded.getRequestIds());
+        assertEquals(event.getTimestamp(), decoded.getTimestamp());
+    }
+
+    private static void assertRejected(byte[] data) {
+        try {
+            RNGeofenceTransitionCodec.decode(data);
+            fail("Decoded " + data.length + " bytes");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -6,6 +6,13 @@ const TAG = 'RNGeofence: ';
 
 const IS_IOS = Platform.OS === 'ios';
 
+const IS_ANDROID = Platform.OS === 'android';
+
+// Methods the iOS module does not have reject instead of failing on an undefined native method
+const androidOnly = (name, call) => (...args) => IS_ANDROID
+    ? call(...args)
+    : Promise.reject(new Error(TAG + name + '() is only available on Android'));
+
 export const Constants = {
     TRANSITION_TYPES: RNGeofence.TRANSITION_TYPES,
 };
@@ -14,6 +21,12 @@ class Geofence {
 
     nativeEventEmitter;
 
+    // Ids of the region handles in compact events, a handle always stands for the same id
+    handleIds = new Map();
+
+    // Keeps compact events in order while their handles are resolved
+    pendingEvents = Promise.resolve();
+
     getNativeEmitter() {
         if (!this.nativeEventEmitter) {
             this.nativeEventEmitter = new NativeEventEmitter(RNGeofence);
@@ -31,25 +44,139 @@ class Geofence {
 
     add = (location) => RNGeofence.add(location);
 
-    addAll = (locations) => RNGeofence.addAll(locations);
+    addAll = (locations, options = {}) => {
+        if (!options.partial) {
+            return RNGeofence.addAll(locations);
+        }
+        if (IS_IOS) {
+            return RNGeofence.addAll(locations)
+                .then((added) => ({added, pending: [], failed: []}));
+        }
+        return RNGeofence.addAllPartial(locations);
+    };
+
+    importRegions = androidOnly('importRegions', (source) => RNGeofence.importRegions(source));
+
+    replayTrace = androidOnly('replayTrace', (source) => RNGeofence.replayTrace(source));
 
     remove = (id) => RNGeofence.remove(id);
 
     removeAll = (ids) => RNGeofence.removeAll(ids);
 
+    removeByTag = androidOnly('removeByTag', (tag) => RNGeofence.removeByTag(tag));
+
+    listByTag = androidOnly('listByTag', (tag) => RNGeofence.listByTag(tag));
+
+    countByTag = androidOnly('countByTag', (tag) => RNGeofence.countByTag(tag));
+
     clear = () => RNGeofence.clear();
 
-    count = () => IS_IOS ? RNGeofence.count() : Promise.resolve(-1);
+    sync = androidOnly('sync', (locations) => RNGeofence.sync(locations));
+
+    count = () => RNGeofence.count();
+
+    getAll = () => RNGeofence.getAll();
+
+    queryContaining = androidOnly('queryContaining', (latitude, longitude) => RNGeofence.queryContaining(latitude, longitude));
+
+    nearest = androidOnly('nearest', (latitude, longitude, k) => RNGeofence.nearest(latitude, longitude, k));
+
+    getMetrics = androidOnly('getMetrics', () => RNGeofence.getMetrics());
+
+    resolveHandles = (handles) => {
+        const missing = handles.filter((handle) => !this.handleIds.has(handle));
+        if (missing.length === 0) {
+            return Promise.resolve(handles.map((handle) => this.handleIds.get(handle)));
+        }
+        return RNGeofence.resolveHandles(missing).then((ids) => {
+            // Handles of removed regions resolve to null and are not cached
+            missing.forEach((handle, i) => ids[i] != null && this.handleIds.set(handle, ids[i]));
+            return handles.map((handle) => this.handleIds.get(handle));
+        });
+    };
+
+    expandEvents = (events, callback) => {
+        if (!events.some((event) => event.handles)) {
+            events.forEach((event) => callback(event));
+            return;
+        }
+        this.pendingEvents = this.pendingEvents
+            .then(() => Promise.all(events.map((event) => {
+                if (!event.handles) {
+                    return event;
+                }
+                return this.resolveHandles(event.handles).then((ids) => {
+                    const {handles, ...rest} = event;
+                    return {...rest, ids: ids.filter((id) => id != null).concat(event.ids || [])};
+                });
+            })))
+            .then((resolved) => resolved.forEach((event) => callback(event)))
+            .catch((error) => console.warn(TAG + 'Could not resolve region handles', error));
+    };
 
     notify = (callback) => {
         if (!(callback instanceof Function)) {
             throw new Error(TAG + 'Callback should be a function');
         }
-        return this.getNativeEmitter().addListener(
+        const emitter = this.getNativeEmitter();
+        const single = emitter.addListener(
             'onTransition',
-            (event) => callback(event)
+            (event) => this.expandEvents([event], callback)
         );
-    }
+        // Events received while the app was in the background, or with batching enabled, are delivered in batches
+        const batch = emitter.addListener(
+            'onTransitions',
+            (events) => this.expandEvents(events, callback)
+        );
+        if (!IS_IOS) {
+            // Transitions are kept on the device until a listener is added, including the journaled ones
+            RNGeofence.addTransitionListener();
+        }
+        let removed = false;
+        return {
+            remove: () => {
+                if (removed) {
+                    return;
+                }
+                removed = true;
+                single.remove();
+                batch.remove();
+                if (!IS_IOS) {
+                    RNGeofence.removeTransitionListener();
+                }
+            },
+        };
+    };
+
+    notifyBatchStats = (callback) => {
+        if (!(callback instanceof Function)) {
+            throw new Error(TAG + 'Callback should be a function');
+        }
+        return this.getNativeEmitter().addListener(
+            'onBatchStats',
+            (stats) => callback(stats)
+        );
+    };
+
+    notifyExpired = (callback) => {
+        if (!(callback instanceof Function)) {
+            throw new Error(TAG + 'Callback should be a function');
+        }
+        return this.getNativeEmitter().addListener(
+            'onExpired',
+            (ids) => callback(ids)
+        );
+    };
+
+    notifyMetrics = (callback) => {
+        if (!(callback instanceof Function)) {
+            throw new Error(TAG + 'Callback should be a function');
+        }
+        return this.getNativeEmitter().addListener(
+            'onMetrics',
+            (metrics) => callback(metrics)
+        );
+    };
 
 }
 
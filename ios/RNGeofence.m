@@ -33,6 +33,10 @@ static NSString *const ENTER = @"ENTER";
 static NSString *const EXIT = @"EXIT";
 
 static NSString *const TRANSITION = @"onTransition";
+static NSString *const TRANSITIONS = @"onTransitions";
+static NSString *const BATCH_STATS = @"onBatchStats";
+static NSString *const METRICS = @"onMetrics";
+static NSString *const EXPIRED = @"onExpired";
 
 RCT_EXPORT_MODULE()
 
@@ -58,7 +62,7 @@ RCT_EXPORT_MODULE()
 
 - (NSArray<NSString *> *)supportedEvents
 {
-  return @[TRANSITION];
+  return @[TRANSITION, TRANSITIONS, BATCH_STATS, METRICS, EXPIRED];
 }
 
 RCT_EXPORT_METHOD(initialize:(NSDictionary *)params)
@@ -210,6 +214,23 @@ RCT_EXPORT_METHOD(count: (RCTPromiseResolveBlock)resolve rejecter:(RCTPromiseRej
   resolve([NSNumber numberWithInteger:count]);
 }
 
+RCT_EXPORT_METHOD(getAll: (RCTPromiseResolveBlock)resolve rejecter:(RCTPromiseRejectBlock)reject)
+{
+  NSMutableArray *regions = [NSMutableArray new];
+  for(CLRegion *region in [self.locationManager monitoredRegions]) {
+    if ([region isKindOfClass:[CLCircularRegion class]]) {
+      CLCircularRegion *circularRegion = (CLCircularRegion *)region;
+      [regions addObject:@{
+                           @"id": circularRegion.identifier,
+                           @"latitude": @(circularRegion.center.latitude),
+                           @"longitude": @(circularRegion.center.longitude),
+                           @"radius": @(circularRegion.radius)
+                           }];
+    }
+  }
+  resolve(regions);
+}
+
 #pragma mark - Private methods
 
 -(void) getUserPermission